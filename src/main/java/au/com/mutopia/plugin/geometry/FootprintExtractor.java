@@ -0,0 +1,155 @@
+package au.com.mutopia.plugin.geometry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.geometry.Matrix;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Projects the triangles of a {@link Mesh} onto the XY plane and unions them into a 2D footprint,
+ * so floor plans can be drawn without the full 3D mesh.
+ */
+public class FootprintExtractor {
+
+  /**
+   * Projected triangles with less than this area, in squared model units, are skipped. Vertical
+   * faces project to slivers that would only slow down the union.
+   */
+  private static final double MIN_TRIANGLE_AREA = 1e-9;
+
+  private final GeometryFactory geometryFactory = new GeometryFactory();
+
+  /**
+   * The 2D footprint and vertical extent of a {@link Mesh}, in model units.
+   */
+  public static class Footprint {
+    private final Geometry geometry;
+    private final double minZ;
+    private final double maxZ;
+
+    public Footprint(Geometry geometry, double minZ, double maxZ) {
+      this.geometry = geometry;
+      this.minZ = minZ;
+      this.maxZ = maxZ;
+    }
+
+    /**
+     * @return The {@link Polygon} or multi-polygon covered by the mesh on the XY plane.
+     */
+    public Geometry getGeometry() {
+      return geometry;
+    }
+
+    public double getArea() {
+      return geometry.getArea();
+    }
+
+    public double getMinZ() {
+      return minZ;
+    }
+
+    public double getMaxZ() {
+      return maxZ;
+    }
+
+    public double getHeight() {
+      return maxZ - minZ;
+    }
+  }
+
+  /**
+   * @param mesh The {@link Mesh} to project.
+   * @param transformation The column-major 4x4 matrix placing the mesh in the model, as stored in
+   *     BIMserver's geometry info, or null if the positions are already placed.
+   * @param tolerance The distance tolerance for simplifying the footprint, in model units.
+   * @return The {@link Footprint} of the {@link Mesh}, or null if no triangle has an area on the
+   * XY plane.
+   */
+  public Footprint extract(Mesh mesh, float[] transformation, double tolerance) {
+    float[] positions = transform(mesh.getPositions(), transformation);
+    int[] indices = mesh.getIndices();
+    int vertexCount = positions.length / 3;
+
+    double minZ = Double.POSITIVE_INFINITY;
+    double maxZ = Double.NEGATIVE_INFINITY;
+    for (int i = 2; i < positions.length; i += 3) {
+      minZ = Math.min(minZ, positions[i]);
+      maxZ = Math.max(maxZ, positions[i]);
+    }
+
+    List<Geometry> triangles = new ArrayList<>();
+    for (int i = 0; i + 2 < indices.length; i += 3) {
+      int a = indices[i];
+      int b = indices[i + 1];
+      int c = indices[i + 2];
+      if (a < 0 || b < 0 || c < 0 || a >= vertexCount || b >= vertexCount || c >= vertexCount) {
+        continue;
+      }
+      Polygon triangle = createTriangle(positions, a, b, c);
+      if (triangle != null) {
+        triangles.add(triangle);
+      }
+    }
+    if (triangles.isEmpty()) {
+      return null;
+    }
+    Geometry union = CascadedPolygonUnion.union(triangles);
+    if (tolerance > 0) {
+      union = TopologyPreservingSimplifier.simplify(union, tolerance);
+    }
+    return new Footprint(union, minZ, maxZ);
+  }
+
+  /**
+   * @return A counter-clockwise {@link Polygon} of the triangle projected onto the XY plane, or
+   * null if it has no area.
+   */
+  private Polygon createTriangle(float[] positions, int a, int b, int c) {
+    double ax = positions[a * 3];
+    double ay = positions[a * 3 + 1];
+    double bx = positions[b * 3];
+    double by = positions[b * 3 + 1];
+    double cx = positions[c * 3];
+    double cy = positions[c * 3 + 1];
+    double doubleArea = (bx - ax) * (cy - ay) - (cx - ax) * (by - ay);
+    if (Math.abs(doubleArea) / 2 < MIN_TRIANGLE_AREA) {
+      return null;
+    }
+    Coordinate first = new Coordinate(ax, ay);
+    Coordinate[] coordinates = doubleArea > 0
+        ? new Coordinate[] {first, new Coordinate(bx, by), new Coordinate(cx, cy), first}
+        : new Coordinate[] {first, new Coordinate(cx, cy), new Coordinate(bx, by), first};
+    return geometryFactory.createPolygon(geometryFactory.createLinearRing(coordinates), null);
+  }
+
+  /**
+   * @return The positions multiplied by the transformation, or the given positions if there is no
+   * transformation.
+   */
+  private static float[] transform(float[] positions, float[] transformation) {
+    if (transformation == null) {
+      return positions;
+    }
+    float[] transformed = new float[positions.length];
+    float[] vector = new float[4];
+    float[] result = new float[4];
+    for (int i = 0; i + 2 < positions.length; i += 3) {
+      vector[0] = positions[i];
+      vector[1] = positions[i + 1];
+      vector[2] = positions[i + 2];
+      vector[3] = 1;
+      Matrix.multiplyMV(result, 0, transformation, 0, vector, 0);
+      transformed[i] = result[0];
+      transformed[i + 1] = result[1];
+      transformed[i + 2] = result[2];
+    }
+    return transformed;
+  }
+}
@@ -0,0 +1,225 @@
+package au.com.mutopia.plugin.geometry;
+
+import java.util.List;
+
+import org.bimserver.emf.IdEObject;
+
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+
+/**
+ * The location of a site on the WGS84 ellipsoid, and the transform from its local
+ * east-north-up (ENU) frame to earth-centered, earth-fixed (ECEF) coordinates, computed once per
+ * site so meshes can be georeferenced in a single pass over their vertices.
+ * <p>
+ * The model's x, y and z axes are taken as east, north and up at the site's reference point,
+ * ignoring any true north rotation of the model's context, and the site's elevation above sea
+ * level as its height above the ellipsoid, ignoring the geoid separation.
+ */
+public class Georeference {
+
+  /** The semi-major axis of the WGS84 ellipsoid in meters. */
+  private static final double WGS84_A = 6378137.0;
+  /** The first eccentricity squared of the WGS84 ellipsoid. */
+  private static final double WGS84_E2 = 6.69437999014e-3;
+
+  private final double latitude;
+  private final double longitude;
+  private final double elevation;
+  private final double[] enuToEcef;
+
+  /**
+   * @param latitude The latitude of the origin in decimal degrees.
+   * @param longitude The longitude of the origin in decimal degrees.
+   * @param elevation The height of the origin above the ellipsoid in meters.
+   */
+  public Georeference(double latitude, double longitude, double elevation) {
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.elevation = elevation;
+    this.enuToEcef = computeEnuToEcef(Math.toRadians(latitude), Math.toRadians(longitude),
+        elevation);
+  }
+
+  /**
+   * @param schemaAdapter
+   * @param site
+   * @return The {@link Georeference} of the site's reference point, or null if it has no latitude
+   *     and longitude.
+   */
+  public static Georeference fromSite(SchemaAdapter schemaAdapter, IdEObject site) {
+    Double latitude = toDecimalDegrees(schemaAdapter.getRefLatitude(site));
+    Double longitude = toDecimalDegrees(schemaAdapter.getRefLongitude(site));
+    if (latitude == null || longitude == null) {
+      return null;
+    }
+    Double elevation = schemaAdapter.getRefElevation(site);
+    return new Georeference(latitude, longitude,
+        elevation == null ? 0 : elevation * schemaAdapter.getLengthUnitConversion());
+  }
+
+  /**
+   * @param schemaAdapter
+   * @return The {@link Georeference} of the first site of the model with a latitude and longitude,
+   *     or null if there is none.
+   */
+  public static Georeference forModel(SchemaAdapter schemaAdapter) {
+    for (IdEObject element : schemaAdapter.getSpatialStructureElements()) {
+      if (schemaAdapter.isSite(element)) {
+        Georeference georeference = fromSite(schemaAdapter, element);
+        if (georeference != null) {
+          return georeference;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Converts an IFC compound plane angle of degrees, minutes, seconds and optionally millionths of
+   * a second to decimal degrees. The components should share a sign, but models often only negate
+   * the degrees, so the sign is taken from the first non-zero component.
+   *
+   * @param compoundAngle
+   * @return The angle in decimal degrees, or null if the angle is empty.
+   */
+  public static Double toDecimalDegrees(List<Integer> compoundAngle) {
+    if (compoundAngle == null || compoundAngle.isEmpty()) {
+      return null;
+    }
+    double[] divisors = {1, 60, 3600, 3600e6};
+    double degrees = 0;
+    int sign = 0;
+    for (int i = 0; i < compoundAngle.size() && i < divisors.length; i++) {
+      int component = compoundAngle.get(i);
+      if (sign == 0 && component != 0) {
+        sign = component < 0 ? -1 : 1;
+      }
+      degrees += Math.abs(component) / divisors[i];
+    }
+    return sign < 0 ? -degrees : degrees;
+  }
+
+  private static double[] computeEnuToEcef(double latitude, double longitude, double height) {
+    double sinLatitude = Math.sin(latitude);
+    double cosLatitude = Math.cos(latitude);
+    double sinLongitude = Math.sin(longitude);
+    double cosLongitude = Math.cos(longitude);
+    double primeVerticalRadius = WGS84_A / Math.sqrt(1 - WGS84_E2 * sinLatitude * sinLatitude);
+    return new double[] {
+        // East
+        -sinLongitude, cosLongitude, 0, 0,
+        // North
+        -sinLatitude * cosLongitude, -sinLatitude * sinLongitude, cosLatitude, 0,
+        // Up
+        cosLatitude * cosLongitude, cosLatitude * sinLongitude, sinLatitude, 0,
+        // Origin
+        (primeVerticalRadius + height) * cosLatitude * cosLongitude,
+        (primeVerticalRadius + height) * cosLatitude * sinLongitude,
+        (primeVerticalRadius * (1 - WGS84_E2) + height) * sinLatitude, 1};
+  }
+
+  public double getLatitude() {
+    return latitude;
+  }
+
+  public double getLongitude() {
+    return longitude;
+  }
+
+  /**
+   * @return The height of the origin above the ellipsoid in meters.
+   */
+  public double getElevation() {
+    return elevation;
+  }
+
+  /**
+   * @return The column-major 4x4 matrix from the site's ENU frame, in meters, to ECEF.
+   */
+  public double[] getEnuToEcef() {
+    return enuToEcef.clone();
+  }
+
+  /**
+   * Transforms positions in model units to ECEF.
+   *
+   * @param positions The positions as {x, y, z} triples.
+   * @param transformation The column-major 4x4 matrix placing the positions in the model, or null.
+   * @param lengthUnitConversion The length of a model unit in meters.
+   * @return The ECEF positions in meters, as doubles since floats can't hold them to the
+   *     millimeter.
+   */
+  public double[] toEcefPositions(float[] positions, float[] transformation,
+      double lengthUnitConversion) {
+    double[] m = combine(transformation, lengthUnitConversion);
+    double[] result = new double[positions.length];
+    for (int i = 0; i + 2 < positions.length; i += 3) {
+      double x = positions[i];
+      double y = positions[i + 1];
+      double z = positions[i + 2];
+      result[i] = m[0] * x + m[4] * y + m[8] * z + m[12];
+      result[i + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+      result[i + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+    }
+    return result;
+  }
+
+  /**
+   * Rotates normals in the model to ECEF.
+   *
+   * @param normals The normals as {x, y, z} triples.
+   * @param transformation The column-major 4x4 matrix placing the normals in the model, or null.
+   * @return The normalized ECEF normals.
+   */
+  public float[] toEcefNormals(float[] normals, float[] transformation) {
+    // Only the rotation of the combined matrix is used.
+    double[] m = combine(transformation, 1);
+    float[] result = new float[normals.length];
+    for (int i = 0; i + 2 < normals.length; i += 3) {
+      double x = normals[i];
+      double y = normals[i + 1];
+      double z = normals[i + 2];
+      double nx = m[0] * x + m[4] * y + m[8] * z;
+      double ny = m[1] * x + m[5] * y + m[9] * z;
+      double nz = m[2] * x + m[6] * y + m[10] * z;
+      double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+      if (length > 0) {
+        nx /= length;
+        ny /= length;
+        nz /= length;
+      }
+      result[i] = (float) nx;
+      result[i + 1] = (float) ny;
+      result[i + 2] = (float) nz;
+    }
+    return result;
+  }
+
+  /**
+   * @return The column-major product of the ENU to ECEF matrix, the scale to meters and the
+   *     transformation.
+   */
+  private double[] combine(float[] transformation, double scale) {
+    double[] local = new double[16];
+    for (int i = 0; i < 16; i++) {
+      local[i] = transformation == null ? (i % 5 == 0 ? 1 : 0) : transformation[i];
+    }
+    for (int i = 0; i < 16; i++) {
+      // Scale the rows for x, y and z, leaving the homogeneous row.
+      if (i % 4 != 3) {
+        local[i] *= scale;
+      }
+    }
+    double[] result = new double[16];
+    for (int column = 0; column < 4; column++) {
+      for (int row = 0; row < 4; row++) {
+        double sum = 0;
+        for (int k = 0; k < 4; k++) {
+          sum += enuToEcef[k * 4 + row] * local[column * 4 + k];
+        }
+        result[column * 4 + row] = sum;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,89 @@
+package au.com.mutopia.plugin.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.bimserver.models.ifc2x3tc1.GeometryData;
+
+/**
+ * Indexed triangle mesh with flat position, normal and index arrays, as read from BIMserver's
+ * {@link GeometryData}.
+ */
+public class Mesh {
+
+  /**
+   * The largest vertex count that can be addressed with unsigned 16-bit indices.
+   */
+  public static final int MAX_SHORT_INDEXED_VERTICES = 65536;
+
+  private final float[] positions;
+  private final float[] normals;
+  private final int[] indices;
+
+  /**
+   * @param positions The vertex positions as {x, y, z} triples.
+   * @param normals The vertex normals as {x, y, z} triples, aligned to the positions.
+   * @param indices The triangle indices, three per triangle.
+   */
+  public Mesh(float[] positions, float[] normals, int[] indices) {
+    this.positions = positions;
+    this.normals = normals;
+    this.indices = indices;
+  }
+
+  /**
+   * Reads the little-endian vertex, normal and index buffers of the {@link GeometryData}.
+   *
+   * @param geometryData
+   * @return The {@link Mesh} containing a copy of the {@link GeometryData} buffers.
+   */
+  public static Mesh fromGeometryData(GeometryData geometryData) {
+    return new Mesh(readFloats(geometryData.getVertices()), readFloats(geometryData.getNormals()),
+        readInts(geometryData.getIndices()));
+  }
+
+  private static float[] readFloats(byte[] bytes) {
+    if (bytes == null) {
+      return new float[0];
+    }
+    float[] values = new float[bytes.length / 4];
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+    return values;
+  }
+
+  private static int[] readInts(byte[] bytes) {
+    if (bytes == null) {
+      return new int[0];
+    }
+    int[] values = new int[bytes.length / 4];
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+    return values;
+  }
+
+  public float[] getPositions() {
+    return positions;
+  }
+
+  public float[] getNormals() {
+    return normals;
+  }
+
+  public int[] getIndices() {
+    return indices;
+  }
+
+  public int getVertexCount() {
+    return positions.length / 3;
+  }
+
+  public int getTriangleCount() {
+    return indices.length / 3;
+  }
+
+  /**
+   * @return Whether every index fits in an unsigned 16-bit integer.
+   */
+  public boolean canUseShortIndices() {
+    return getVertexCount() <= MAX_SHORT_INDEXED_VERTICES;
+  }
+}
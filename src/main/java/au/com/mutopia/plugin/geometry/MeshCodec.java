@@ -0,0 +1,439 @@
+package au.com.mutopia.plugin.geometry;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of a triangle mesh, for output where the float32 vertex and int32 index
+ * buffers, let alone their JSON text, are too large.
+ * <p>
+ * Positions are quantized to a grid over the mesh's bounding box with the same step on each axis,
+ * so {@code positionBits} bits per component bound the error by half a step, e.g. 0.8 mm for a
+ * 100 m mesh at 16 bits. Normals are octahedron encoded into two signed components of
+ * {@code normalBits} bits. Each component is then written as the zig-zag varint of its difference
+ * from the previous vertex's, and each index as the zig-zag varint of its difference from the
+ * previous index. Meshes that are welded and reordered by {@link MeshOptimizer} have mostly small
+ * differences, which fit in a byte. The result can optionally be deflated, which mainly pays off
+ * for the many repeated normals and index patterns of flat-shaded BIM geometry.
+ * <p>
+ * The encoding is:
+ *
+ * <pre>
+ * byte    version ({@link #VERSION})
+ * byte    flags ({@link #HAS_NORMALS}, {@link #DEFLATED})
+ * The rest, deflated if {@link #DEFLATED} is set:
+ * varint  vertexCount, indexCount
+ * byte    positionBits, normalBits
+ * float64 minX, minY, minZ, step (little-endian)
+ * varint  position deltas, 3 per vertex
+ * varint  normal deltas, 2 per vertex if {@link #HAS_NORMALS} is set
+ * varint  index deltas
+ * </pre>
+ *
+ * Varints are unsigned LEB128: 7 bits per byte, least significant first, with the high bit set on
+ * all but the last byte. A signed value {@code n} is zig-zag mapped to {@code (n << 1) ^ (n >> 31)}
+ * first, so small negative values stay small.
+ */
+public class MeshCodec {
+
+  public static final int VERSION = 1;
+  /** Flag set if the normals are encoded. */
+  public static final int HAS_NORMALS = 1;
+  /** Flag set if everything after the flags is deflated. */
+  public static final int DEFLATED = 2;
+
+  public static final int DEFAULT_POSITION_BITS = 16;
+  public static final int DEFAULT_NORMAL_BITS = 12;
+  public static final int MAX_POSITION_BITS = 30;
+  public static final int MAX_NORMAL_BITS = 16;
+
+  /**
+   * Encodes the mesh with positions in its own units.
+   *
+   * @param mesh
+   * @param positionBits The bits per quantized position component, from 1 to
+   *     {@link #MAX_POSITION_BITS}.
+   * @param normalBits The bits per octahedron encoded normal component, from 2 to
+   *     {@link #MAX_NORMAL_BITS}.
+   * @param deflate Whether to deflate the encoding. It is left uncompressed if deflating doesn't
+   *     make it smaller.
+   * @return The encoded mesh.
+   */
+  public static byte[] encode(Mesh mesh, int positionBits, int normalBits, boolean deflate) {
+    return encode(mesh.getPositions(), null, mesh, positionBits, normalBits, deflate);
+  }
+
+  /**
+   * Encodes the mesh with the given positions instead of its own, e.g. the double precision ECEF
+   * positions from {@link Georeference#toEcefPositions(float[], float[], double)}.
+   *
+   * @param mesh The mesh with the normals and indices to encode.
+   * @param positions The positions as {x, y, z} triples, aligned to the mesh's vertices.
+   * @param positionBits See {@link #encode(Mesh, int, int, boolean)}.
+   * @param normalBits See {@link #encode(Mesh, int, int, boolean)}.
+   * @param deflate See {@link #encode(Mesh, int, int, boolean)}.
+   * @return The encoded mesh.
+   */
+  public static byte[] encode(Mesh mesh, double[] positions, int positionBits, int normalBits,
+      boolean deflate) {
+    return encode(null, positions, mesh, positionBits, normalBits, deflate);
+  }
+
+  /**
+   * Encodes the float positions, or the double positions if they are null.
+   */
+  private static byte[] encode(float[] floatPositions, double[] doublePositions, Mesh mesh,
+      int positionBits, int normalBits, boolean deflate) {
+    if (positionBits < 1 || positionBits > MAX_POSITION_BITS) {
+      throw new IllegalArgumentException("Position bits must be from 1 to " + MAX_POSITION_BITS
+          + ", not " + positionBits);
+    }
+    if (normalBits < 2 || normalBits > MAX_NORMAL_BITS) {
+      throw new IllegalArgumentException("Normal bits must be from 2 to " + MAX_NORMAL_BITS
+          + ", not " + normalBits);
+    }
+    int vertexCount = mesh.getVertexCount();
+    float[] normals = mesh.getNormals();
+    int[] indices = mesh.getIndices();
+    boolean hasNormals = vertexCount > 0 && normals.length == vertexCount * 3;
+
+    double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+    double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    for (int i = 0; i < vertexCount * 3; i++) {
+      double value = position(floatPositions, doublePositions, i);
+      min[i % 3] = Math.min(min[i % 3], value);
+      max[i % 3] = Math.max(max[i % 3], value);
+    }
+    double extent = 0;
+    for (int axis = 0; axis < 3; axis++) {
+      if (vertexCount == 0) {
+        min[axis] = 0;
+      } else {
+        extent = Math.max(extent, max[axis] - min[axis]);
+      }
+    }
+    int maxQuantized = (int) ((1L << positionBits) - 1);
+    double step = extent / maxQuantized;
+
+    ByteWriter out = new ByteWriter(vertexCount * 8 + indices.length * 2 + 64);
+    out.writeVarint(vertexCount);
+    out.writeVarint(indices.length);
+    out.writeByte(positionBits);
+    out.writeByte(normalBits);
+    for (double value : min) {
+      out.writeDouble(value);
+    }
+    out.writeDouble(step);
+
+    int[] previous = new int[3];
+    for (int i = 0; i < vertexCount * 3; i++) {
+      double offset = position(floatPositions, doublePositions, i) - min[i % 3];
+      int quantized = step > 0 ? (int) Math.min(Math.round(offset / step), maxQuantized) : 0;
+      out.writeVarint(zigZag(quantized - previous[i % 3]));
+      previous[i % 3] = quantized;
+    }
+    if (hasNormals) {
+      int[] octahedral = new int[2];
+      int previousU = 0;
+      int previousV = 0;
+      for (int i = 0; i < normals.length; i += 3) {
+        encodeOctahedral(normals[i], normals[i + 1], normals[i + 2], normalBits, octahedral);
+        out.writeVarint(zigZag(octahedral[0] - previousU));
+        out.writeVarint(zigZag(octahedral[1] - previousV));
+        previousU = octahedral[0];
+        previousV = octahedral[1];
+      }
+    }
+    int previousIndex = 0;
+    for (int index : indices) {
+      out.writeVarint(zigZag(index - previousIndex));
+      previousIndex = index;
+    }
+
+    int flags = hasNormals ? HAS_NORMALS : 0;
+    byte[] payload = out.toByteArray();
+    if (deflate) {
+      byte[] deflated = deflate(payload);
+      if (deflated.length < payload.length) {
+        payload = deflated;
+        flags |= DEFLATED;
+      }
+    }
+    byte[] result = new byte[payload.length + 2];
+    result[0] = VERSION;
+    result[1] = (byte) flags;
+    System.arraycopy(payload, 0, result, 2, payload.length);
+    return result;
+  }
+
+  private static double position(float[] floatPositions, double[] doublePositions, int i) {
+    return floatPositions != null ? floatPositions[i] : doublePositions[i];
+  }
+
+  /**
+   * Projects the normal onto the octahedron |x| + |y| + |z| = 1 and unfolds the lower half onto
+   * the square, giving two components in [-1, 1] that are quantized to signed integers. Zero
+   * length normals are encoded as (0, 0), which decodes to (0, 0, 1).
+   */
+  private static void encodeOctahedral(float x, float y, float z, int bits, int[] result) {
+    double length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+    double u = 0;
+    double v = 0;
+    if (length > 0) {
+      u = x / length;
+      v = y / length;
+      if (z < 0) {
+        double foldedU = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+        v = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+        u = foldedU;
+      }
+    }
+    int maxQuantized = (1 << (bits - 1)) - 1;
+    result[0] = (int) Math.round(u * maxQuantized);
+    result[1] = (int) Math.round(v * maxQuantized);
+  }
+
+  private static int zigZag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unZigZag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater();
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int count = deflater.deflate(buffer);
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] bytes, int offset) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes, offset, bytes.length - offset);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 3);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int count = inflater.inflate(buffer);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("Truncated deflated mesh");
+        }
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Malformed deflated mesh", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Decodes a mesh encoded by {@link #encode(Mesh, int, int, boolean)}.
+   *
+   * @param bytes
+   * @return The decoded mesh, with positions dequantized to the nearest grid point and normals of
+   *     unit length.
+   * @throws IllegalArgumentException If the bytes aren't an encoded mesh of a supported version.
+   */
+  public static DecodedMesh decode(byte[] bytes) {
+    if (bytes.length < 2 || bytes[0] != VERSION) {
+      throw new IllegalArgumentException("Not an encoded mesh of version " + VERSION);
+    }
+    int flags = bytes[1];
+    ByteReader in = (flags & DEFLATED) != 0 ? new ByteReader(inflate(bytes, 2), 0)
+        : new ByteReader(bytes, 2);
+    int vertexCount = in.readVarint();
+    int indexCount = in.readVarint();
+    int positionBits = in.readByte();
+    int normalBits = in.readByte();
+    double[] min = {in.readDouble(), in.readDouble(), in.readDouble()};
+    double step = in.readDouble();
+    if (vertexCount < 0 || indexCount < 0 || normalBits < 2 || normalBits > MAX_NORMAL_BITS
+        || positionBits < 1 || positionBits > MAX_POSITION_BITS
+        || vertexCount * 3L + indexCount > in.remaining()) {
+      // Every value takes at least a byte, so a corrupt count can't allocate huge arrays.
+      throw new IllegalArgumentException("Malformed encoded mesh header");
+    }
+
+    double[] positions = new double[vertexCount * 3];
+    int[] previous = new int[3];
+    for (int i = 0; i < positions.length; i++) {
+      int quantized = previous[i % 3] + unZigZag(in.readVarint());
+      positions[i] = min[i % 3] + quantized * step;
+      previous[i % 3] = quantized;
+    }
+    float[] normals = new float[(flags & HAS_NORMALS) != 0 ? vertexCount * 3 : 0];
+    double maxQuantized = (1 << (normalBits - 1)) - 1;
+    int u = 0;
+    int v = 0;
+    for (int i = 0; i < normals.length; i += 3) {
+      u += unZigZag(in.readVarint());
+      v += unZigZag(in.readVarint());
+      decodeOctahedral(u / maxQuantized, v / maxQuantized, normals, i);
+    }
+    int[] indices = new int[indexCount];
+    int index = 0;
+    for (int i = 0; i < indexCount; i++) {
+      index += unZigZag(in.readVarint());
+      if (index < 0 || index >= vertexCount) {
+        throw new IllegalArgumentException("Triangle index " + index + " is out of range for "
+            + vertexCount + " vertices");
+      }
+      indices[i] = index;
+    }
+    return new DecodedMesh(positions, normals, indices);
+  }
+
+  private static void decodeOctahedral(double u, double v, float[] normals, int offset) {
+    double z = 1 - Math.abs(u) - Math.abs(v);
+    if (z < 0) {
+      double unfoldedU = (1 - Math.abs(v)) * (u >= 0 ? 1 : -1);
+      v = (1 - Math.abs(u)) * (v >= 0 ? 1 : -1);
+      u = unfoldedU;
+    }
+    double length = Math.sqrt(u * u + v * v + z * z);
+    normals[offset] = (float) (u / length);
+    normals[offset + 1] = (float) (v / length);
+    normals[offset + 2] = (float) (z / length);
+  }
+
+  /**
+   * A mesh decoded by {@link MeshCodec#decode(byte[])}, with double precision positions so
+   * positions encoded from doubles, e.g. in ECEF, don't lose precision.
+   */
+  public static class DecodedMesh {
+    private final double[] positions;
+    private final float[] normals;
+    private final int[] indices;
+
+    private DecodedMesh(double[] positions, float[] normals, int[] indices) {
+      this.positions = positions;
+      this.normals = normals;
+      this.indices = indices;
+    }
+
+    public double[] getPositions() {
+      return positions;
+    }
+
+    /**
+     * @return The normals, or an empty array if none were encoded.
+     */
+    public float[] getNormals() {
+      return normals;
+    }
+
+    public int[] getIndices() {
+      return indices;
+    }
+
+    /**
+     * @return The decoded mesh with its positions rounded to floats.
+     */
+    public Mesh toMesh() {
+      float[] floatPositions = new float[positions.length];
+      for (int i = 0; i < positions.length; i++) {
+        floatPositions[i] = (float) positions[i];
+      }
+      return new Mesh(floatPositions, normals, indices);
+    }
+  }
+
+  /**
+   * Growable byte array for writing varints and little-endian doubles without the synchronization
+   * of {@link ByteArrayOutputStream}.
+   */
+  private static class ByteWriter {
+    private byte[] bytes;
+    private int size = 0;
+
+    ByteWriter(int capacity) {
+      bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    void writeByte(int value) {
+      if (size == bytes.length) {
+        byte[] grown = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, grown, 0, size);
+        bytes = grown;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    void writeDouble(double value) {
+      long bits = Double.doubleToLongBits(value);
+      for (int i = 0; i < 8; i++) {
+        writeByte((int) (bits >>> (i * 8)));
+      }
+    }
+
+    byte[] toByteArray() {
+      byte[] result = new byte[size];
+      System.arraycopy(bytes, 0, result, 0, size);
+      return result;
+    }
+  }
+
+  private static class ByteReader {
+    private final byte[] bytes;
+    private int position;
+
+    ByteReader(byte[] bytes, int position) {
+      this.bytes = bytes;
+      this.position = position;
+    }
+
+    int remaining() {
+      return bytes.length - position;
+    }
+
+    int readByte() {
+      if (position >= bytes.length) {
+        throw new IllegalArgumentException("Truncated encoded mesh");
+      }
+      return bytes[position++] & 0xff;
+    }
+
+    int readVarint() {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = readByte();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint in encoded mesh");
+    }
+
+    double readDouble() {
+      long bits = 0;
+      for (int i = 0; i < 8; i++) {
+        bits |= (long) readByte() << (i * 8);
+      }
+      return Double.longBitsToDouble(bits);
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package au.com.mutopia.plugin.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles and vertices of a {@link Mesh} so that it renders with fewer vertex
+ * shader invocations and compresses better.
+ * <p>
+ * Triangles are reordered for post-transform vertex cache locality with Tom Forsyth's
+ * "Linear-Speed Vertex Cache Optimisation", then vertices are renumbered in the order they are
+ * first used so vertex fetches are sequential. The winding of each triangle is kept.
+ */
+public class MeshOptimizer {
+
+  /**
+   * The size of the FIFO cache simulated by {@link #calculateAcmr(int[], int)} when no size is
+   * given, matching common post-transform caches.
+   */
+  public static final int DEFAULT_CACHE_SIZE = 16;
+
+  /**
+   * The size of the LRU cache modelled while scoring vertices.
+   */
+  private static final int SCORING_CACHE_SIZE = 32;
+  private static final float CACHE_DECAY_POWER = 1.5f;
+  private static final float LAST_TRIANGLE_SCORE = 0.75f;
+  private static final float VALENCE_BOOST_SCALE = 2.0f;
+  private static final float VALENCE_BOOST_POWER = 0.5f;
+
+  private static final float[] CACHE_POSITION_SCORES = new float[SCORING_CACHE_SIZE];
+  static {
+    for (int i = 0; i < SCORING_CACHE_SIZE; i++) {
+      if (i < 3) {
+        // The vertices of the last triangle are scored equally, so the next triangle does not
+        // favour a particular edge.
+        CACHE_POSITION_SCORES[i] = LAST_TRIANGLE_SCORE;
+      } else {
+        float scaler = 1.0f / (SCORING_CACHE_SIZE - 3);
+        CACHE_POSITION_SCORES[i] =
+            (float) Math.pow(1.0f - (i - 3) * scaler, CACHE_DECAY_POWER);
+      }
+    }
+  }
+
+  /**
+   * @param mesh The {@link Mesh} to optimize.
+   * @return A new {@link Mesh} with the triangles reordered for vertex cache locality and the
+   * vertices reordered for fetch locality. Returns the given {@link Mesh} if its indices are
+   * malformed.
+   */
+  public static Mesh optimize(Mesh mesh) {
+    int vertexCount = mesh.getVertexCount();
+    if (!hasValidIndices(mesh.getIndices(), vertexCount)) {
+      return mesh;
+    }
+    int[] indices = optimizeVertexCache(mesh.getIndices(), vertexCount);
+    return optimizeVertexFetch(new Mesh(mesh.getPositions(), mesh.getNormals(), indices));
+  }
+
+  private static boolean hasValidIndices(int[] indices, int vertexCount) {
+    if (indices.length % 3 != 0) {
+      return false;
+    }
+    for (int index : indices) {
+      if (index < 0 || index >= vertexCount) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reorders the triangles of the index buffer for post-transform vertex cache locality.
+   *
+   * @param indices The triangle indices, three per triangle.
+   * @param vertexCount The number of vertices referenced by the indices.
+   * @return The reordered triangle indices.
+   */
+  public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+    int triangleCount = indices.length / 3;
+    if (triangleCount == 0) {
+      return indices;
+    }
+
+    // Build the vertex to triangle adjacency as offsets into a flat list.
+    int[] valence = new int[vertexCount];
+    for (int index : indices) {
+      valence[index]++;
+    }
+    int[] adjacencyOffsets = new int[vertexCount + 1];
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      adjacencyOffsets[vertex + 1] = adjacencyOffsets[vertex] + valence[vertex];
+    }
+    int[] adjacency = new int[indices.length];
+    int[] fill = Arrays.copyOf(adjacencyOffsets, vertexCount);
+    for (int i = 0; i < indices.length; i++) {
+      adjacency[fill[indices[i]]++] = i / 3;
+    }
+
+    // Remaining valence is the number of triangles of the vertex that are not yet emitted.
+    int[] remaining = valence;
+    float[] vertexScores = new float[vertexCount];
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      vertexScores[vertex] = vertexScore(-1, remaining[vertex]);
+    }
+    float[] triangleScores = new float[triangleCount];
+    for (int triangle = 0; triangle < triangleCount; triangle++) {
+      int offset = triangle * 3;
+      triangleScores[triangle] = vertexScores[indices[offset]]
+          + vertexScores[indices[offset + 1]] + vertexScores[indices[offset + 2]];
+    }
+    boolean[] emitted = new boolean[triangleCount];
+
+    int[] cache = new int[SCORING_CACHE_SIZE + 3];
+    int cacheCount = 0;
+    int[] newCache = new int[SCORING_CACHE_SIZE + 3];
+    int[] result = new int[indices.length];
+    int resultCount = 0;
+    // The next triangle to consider when the cache holds no candidates.
+    int scanPosition = 0;
+
+    int bestTriangle = bestTriangle(triangleScores);
+    while (bestTriangle >= 0) {
+      int offset = bestTriangle * 3;
+      emitted[bestTriangle] = true;
+
+      // Emit the triangle and move its vertices to the front of the cache.
+      int newCacheCount = 0;
+      for (int i = 0; i < 3; i++) {
+        int vertex = indices[offset + i];
+        result[resultCount++] = vertex;
+        if (!contains(newCache, newCacheCount, vertex)) {
+          newCache[newCacheCount++] = vertex;
+        }
+        removeTriangle(adjacency, adjacencyOffsets[vertex], remaining[vertex], bestTriangle);
+        remaining[vertex]--;
+      }
+      for (int i = 0; i < cacheCount; i++) {
+        int vertex = cache[i];
+        if (vertex != indices[offset] && vertex != indices[offset + 1]
+            && vertex != indices[offset + 2]) {
+          newCache[newCacheCount++] = vertex;
+        }
+      }
+      int[] swap = cache;
+      cache = newCache;
+      newCache = swap;
+      cacheCount = newCacheCount;
+
+      // Rescore the vertices in the cache, including those just pushed out of it.
+      for (int i = 0; i < cacheCount; i++) {
+        int vertex = cache[i];
+        int position = i < SCORING_CACHE_SIZE ? i : -1;
+        float delta = vertexScore(position, remaining[vertex]) - vertexScores[vertex];
+        vertexScores[vertex] += delta;
+        for (int j = adjacencyOffsets[vertex];
+            j < adjacencyOffsets[vertex] + remaining[vertex]; j++) {
+          triangleScores[adjacency[j]] += delta;
+        }
+      }
+      if (cacheCount > SCORING_CACHE_SIZE) {
+        cacheCount = SCORING_CACHE_SIZE;
+      }
+
+      // Pick the best triangle touching the cache, falling back to the next triangle in the
+      // original order so disconnected meshes stay linear.
+      bestTriangle = -1;
+      float bestScore = -1;
+      for (int i = 0; i < cacheCount; i++) {
+        int vertex = cache[i];
+        for (int j = adjacencyOffsets[vertex];
+            j < adjacencyOffsets[vertex] + remaining[vertex]; j++) {
+          int triangle = adjacency[j];
+          if (triangleScores[triangle] > bestScore) {
+            bestScore = triangleScores[triangle];
+            bestTriangle = triangle;
+          }
+        }
+      }
+      if (bestTriangle < 0) {
+        while (scanPosition < triangleCount && emitted[scanPosition]) {
+          scanPosition++;
+        }
+        if (scanPosition < triangleCount) {
+          bestTriangle = scanPosition;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean contains(int[] values, int count, int value) {
+    for (int i = 0; i < count; i++) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the triangle from the vertex's list of remaining triangles by swapping it to the end.
+   */
+  private static void removeTriangle(int[] adjacency, int start, int count, int triangle) {
+    int last = start + count - 1;
+    for (int i = start; i <= last; i++) {
+      if (adjacency[i] == triangle) {
+        adjacency[i] = adjacency[last];
+        adjacency[last] = triangle;
+        return;
+      }
+    }
+  }
+
+  private static int bestTriangle(float[] triangleScores) {
+    int bestTriangle = -1;
+    float bestScore = -1;
+    for (int triangle = 0; triangle < triangleScores.length; triangle++) {
+      if (triangleScores[triangle] > bestScore) {
+        bestScore = triangleScores[triangle];
+        bestTriangle = triangle;
+      }
+    }
+    return bestTriangle;
+  }
+
+  private static float vertexScore(int cachePosition, int remainingValence) {
+    if (remainingValence == 0) {
+      return -1.0f;
+    }
+    float score = cachePosition < 0 ? 0.0f : CACHE_POSITION_SCORES[cachePosition];
+    return score
+        + VALENCE_BOOST_SCALE * (float) Math.pow(remainingValence, -VALENCE_BOOST_POWER);
+  }
+
+  /**
+   * Renumbers the vertices in the order they are first referenced by the indices, so the vertex
+   * buffer is read sequentially. Unreferenced vertices are dropped, and so are normals that don't
+   * have one entry per vertex, since they can't follow the renumbered vertices.
+   *
+   * @param mesh
+   * @return A new {@link Mesh} with the vertices reordered.
+   */
+  public static Mesh optimizeVertexFetch(Mesh mesh) {
+    float[] positions = mesh.getPositions();
+    float[] normals = mesh.getNormals();
+    int[] indices = mesh.getIndices();
+    boolean hasNormals = normals.length == positions.length;
+
+    int[] remap = new int[mesh.getVertexCount()];
+    Arrays.fill(remap, -1);
+    float[] newPositions = new float[positions.length];
+    float[] newNormals = new float[hasNormals ? normals.length : 0];
+    int[] newIndices = new int[indices.length];
+    int newCount = 0;
+    for (int i = 0; i < indices.length; i++) {
+      int vertex = indices[i];
+      if (remap[vertex] < 0) {
+        System.arraycopy(positions, vertex * 3, newPositions, newCount * 3, 3);
+        if (hasNormals) {
+          System.arraycopy(normals, vertex * 3, newNormals, newCount * 3, 3);
+        }
+        remap[vertex] = newCount++;
+      }
+      newIndices[i] = remap[vertex];
+    }
+    return new Mesh(Arrays.copyOf(newPositions, newCount * 3),
+        Arrays.copyOf(newNormals, hasNormals ? newCount * 3 : 0), newIndices);
+  }
+
+  /**
+   * Calculates the average cache miss ratio (ACMR) of the indices, the number of vertices
+   * transformed per triangle, using a FIFO cache of {@link #DEFAULT_CACHE_SIZE} entries. Ranges
+   * from 3 for no vertex reuse down to about 0.5 for a regular grid.
+   *
+   * @param indices The triangle indices, three per triangle.
+   * @param vertexCount The number of vertices referenced by the indices.
+   * @return The ACMR, or 0 if there are no triangles.
+   */
+  public static double calculateAcmr(int[] indices, int vertexCount) {
+    return calculateAcmr(indices, vertexCount, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @param indices The triangle indices, three per triangle.
+   * @param vertexCount The number of vertices referenced by the indices.
+   * @param cacheSize The number of entries in the simulated FIFO cache.
+   * @return The ACMR, or 0 if there are no triangles.
+   * @see #calculateAcmr(int[], int)
+   */
+  public static double calculateAcmr(int[] indices, int vertexCount, int cacheSize) {
+    int triangleCount = indices.length / 3;
+    if (triangleCount == 0) {
+      return 0;
+    }
+    // Each vertex remembers the miss count at which it entered the cache, so a vertex is cached
+    // while fewer than cacheSize misses have happened since.
+    int[] cachedAt = new int[vertexCount];
+    Arrays.fill(cachedAt, Integer.MIN_VALUE);
+    int misses = 0;
+    for (int index : indices) {
+      if (cachedAt[index] == Integer.MIN_VALUE || misses - cachedAt[index] > cacheSize) {
+        cachedAt[index] = misses++;
+      }
+    }
+    return (double) misses / triangleCount;
+  }
+}
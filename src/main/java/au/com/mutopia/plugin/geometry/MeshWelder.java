@@ -0,0 +1,127 @@
+package au.com.mutopia.plugin.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Welds duplicate vertices of a {@link Mesh}. BIMserver usually stores three unshared vertices
+ * per triangle, so merging vertices with identical position and normal shrinks both the output
+ * and the vertex buffers a client has to upload.
+ * <p>
+ * Vertices are matched on the exact bits of their position and normal, using an open-addressing
+ * table of vertex indices so no keys are boxed.
+ */
+public class MeshWelder {
+
+  private static final int EMPTY = -1;
+
+  /**
+   * @param mesh The {@link Mesh} to weld.
+   * @return A new {@link Mesh} with duplicate vertices merged and the indices rewritten, or the
+   * given {@link Mesh} if it has no duplicate vertices. Normals that don't have one entry per
+   * vertex are dropped, since they can't follow the merged vertices.
+   */
+  public static Mesh weld(Mesh mesh) {
+    float[] positions = mesh.getPositions();
+    float[] normals = mesh.getNormals();
+    int[] indices = mesh.getIndices();
+    boolean hasNormals = normals.length == positions.length;
+    int vertexCount = mesh.getVertexCount();
+
+    int[] table = new int[tableSize(vertexCount)];
+    Arrays.fill(table, EMPTY);
+    int mask = table.length - 1;
+
+    // Maps each original vertex to its welded vertex.
+    int[] remap = new int[vertexCount];
+    float[] weldedPositions = new float[positions.length];
+    float[] weldedNormals = new float[hasNormals ? normals.length : 0];
+    int weldedCount = 0;
+
+    for (int vertex = 0; vertex < vertexCount; vertex++) {
+      int slot = hash(positions, normals, hasNormals, vertex) & mask;
+      while (true) {
+        int candidate = table[slot];
+        if (candidate == EMPTY) {
+          int offset = weldedCount * 3;
+          System.arraycopy(positions, vertex * 3, weldedPositions, offset, 3);
+          if (hasNormals) {
+            System.arraycopy(normals, vertex * 3, weldedNormals, offset, 3);
+          }
+          table[slot] = weldedCount;
+          remap[vertex] = weldedCount++;
+          break;
+        }
+        if (equals(positions, normals, hasNormals, vertex, weldedPositions, weldedNormals,
+            candidate)) {
+          remap[vertex] = candidate;
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    if (weldedCount == vertexCount) {
+      return mesh;
+    }
+    int[] weldedIndices = new int[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      int index = indices[i];
+      if (index < 0 || index >= vertexCount) {
+        // Leave malformed geometry as it is rather than guessing at its vertices.
+        return mesh;
+      }
+      weldedIndices[i] = remap[index];
+    }
+    return new Mesh(Arrays.copyOf(weldedPositions, weldedCount * 3),
+        Arrays.copyOf(weldedNormals, hasNormals ? weldedCount * 3 : 0), weldedIndices);
+  }
+
+  /**
+   * @return A power of two table size keeping the load factor at or below one half.
+   */
+  private static int tableSize(int vertexCount) {
+    int size = 2;
+    while (size < vertexCount * 2) {
+      size <<= 1;
+    }
+    return size;
+  }
+
+  private static int hash(float[] positions, float[] normals, boolean hasNormals, int vertex) {
+    int offset = vertex * 3;
+    int hash = 1;
+    for (int i = offset; i < offset + 3; i++) {
+      hash = hash * 31 + bits(positions[i]);
+      if (hasNormals) {
+        hash = hash * 31 + bits(normals[i]);
+      }
+    }
+    // Spread the bits, since the table index only uses the low bits.
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    return hash;
+  }
+
+  private static boolean equals(float[] positions, float[] normals, boolean hasNormals,
+      int vertex, float[] weldedPositions, float[] weldedNormals, int weldedVertex) {
+    int offset = vertex * 3;
+    int weldedOffset = weldedVertex * 3;
+    for (int i = 0; i < 3; i++) {
+      if (bits(positions[offset + i]) != bits(weldedPositions[weldedOffset + i])) {
+        return false;
+      }
+      if (hasNormals && bits(normals[offset + i]) != bits(weldedNormals[weldedOffset + i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The bits of the value, treating -0 and 0 as equal.
+   */
+  private static int bits(float value) {
+    return Float.floatToIntBits(value + 0.0f);
+  }
+}
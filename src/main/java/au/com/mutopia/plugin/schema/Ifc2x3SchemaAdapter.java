@@ -0,0 +1,751 @@
+package au.com.mutopia.plugin.schema;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.GeometryData;
+import org.bimserver.models.ifc2x3tc1.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcBooleanClippingResult;
+import org.bimserver.models.ifc2x3tc1.IfcBooleanOperand;
+import org.bimserver.models.ifc2x3tc1.IfcBooleanResult;
+import org.bimserver.models.ifc2x3tc1.IfcColourRgb;
+import org.bimserver.models.ifc2x3tc1.IfcCsgPrimitive3D;
+import org.bimserver.models.ifc2x3tc1.IfcElementQuantity;
+import org.bimserver.models.ifc2x3tc1.IfcGroup;
+import org.bimserver.models.ifc2x3tc1.IfcHalfSpaceSolid;
+import org.bimserver.models.ifc2x3tc1.IfcMappedItem;
+import org.bimserver.models.ifc2x3tc1.IfcMaterial;
+import org.bimserver.models.ifc2x3tc1.IfcMaterialDefinitionRepresentation;
+import org.bimserver.models.ifc2x3tc1.IfcMaterialLayer;
+import org.bimserver.models.ifc2x3tc1.IfcMaterialLayerSet;
+import org.bimserver.models.ifc2x3tc1.IfcMaterialLayerSetUsage;
+import org.bimserver.models.ifc2x3tc1.IfcMaterialList;
+import org.bimserver.models.ifc2x3tc1.IfcMaterialSelect;
+import org.bimserver.models.ifc2x3tc1.IfcObject;
+import org.bimserver.models.ifc2x3tc1.IfcObjectDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcPhysicalQuantity;
+import org.bimserver.models.ifc2x3tc1.IfcPresentationStyleAssignment;
+import org.bimserver.models.ifc2x3tc1.IfcPresentationStyleSelect;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcProductRepresentation;
+import org.bimserver.models.ifc2x3tc1.IfcProject;
+import org.bimserver.models.ifc2x3tc1.IfcProperty;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySetDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssigns;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssignsToGroup;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociates;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesMaterial;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.models.ifc2x3tc1.IfcRelDecomposes;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefines;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByType;
+import org.bimserver.models.ifc2x3tc1.IfcRepresentation;
+import org.bimserver.models.ifc2x3tc1.IfcRepresentationItem;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.bimserver.models.ifc2x3tc1.IfcSite;
+import org.bimserver.models.ifc2x3tc1.IfcSlab;
+import org.bimserver.models.ifc2x3tc1.IfcSolidModel;
+import org.bimserver.models.ifc2x3tc1.IfcSpace;
+import org.bimserver.models.ifc2x3tc1.IfcSpatialStructureElement;
+import org.bimserver.models.ifc2x3tc1.IfcStyledItem;
+import org.bimserver.models.ifc2x3tc1.IfcSurfaceStyle;
+import org.bimserver.models.ifc2x3tc1.IfcSurfaceStyleElementSelect;
+import org.bimserver.models.ifc2x3tc1.IfcSurfaceStyleRendering;
+import org.bimserver.models.ifc2x3tc1.IfcZone;
+import org.bimserver.models.store.SIPrefix;
+import org.eclipse.emf.common.util.EList;
+
+import au.com.mutopia.plugin.geometry.Mesh;
+import au.com.mutopia.plugin.util.Diagnostics;
+import au.com.mutopia.plugin.util.IfcUtil;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+/**
+ * {@link SchemaAdapter} for models loaded with the IFC2x3 TC1 schema, the schema of every model
+ * in BIMserver 1.3.
+ */
+public class Ifc2x3SchemaAdapter implements SchemaAdapter {
+  public static final String SCHEMA = "IFC2X3TC1";
+
+  public static final String UNKNOWN_PROPERTY = "Unknown IfcProperty";
+  public static final String UNKNOWN_PROPERTY_SET = "Unknown IfcPropertySetDefinition";
+  public static final String UNSUPPORTED_SURFACE_STYLE = "Unsupported surface style";
+  public static final String UNKNOWN_MATERIAL = "Unknown IfcMaterialSelect";
+
+  private static final String LONG_NAME_PROPERTY = "long_name";
+  private static final String ZONE_PROPERTY = "zone";
+  private static final String SPACE_CODE_PROPERTY = "space_code";
+
+  private final IfcUtil ifcUtil;
+  private final Diagnostics diagnostics;
+  private final IfcModelInterface model;
+  private final double lengthUnitConversion;
+
+  /**
+   * The material of each {@link IfcObject}, mapped on the first request for parameters.
+   */
+  private Map<IfcObject, IfcMaterialSelect> objectMaterialMap;
+
+  /**
+   * The {@link MaterialSet} of each {@link IfcMaterialSelect} read so far, so shared materials are
+   * only read once.
+   */
+  private final Map<IfcMaterialSelect, MaterialSet> materialSets = new HashMap<>();
+
+  /**
+   * @param model
+   * @param diagnostics The {@link Diagnostics} to count unsupported model content in.
+   */
+  public Ifc2x3SchemaAdapter(IfcModelInterface model, Diagnostics diagnostics) {
+    this.model = model;
+    this.diagnostics = diagnostics;
+    this.ifcUtil = new IfcUtil(diagnostics);
+    SIPrefix lengthUnitPrefix = ifcUtil.getLengthUnitPrefix(model);
+    if (lengthUnitPrefix == null) {
+      lengthUnitConversion = 1; // Default to Meter.
+    } else {
+      lengthUnitConversion = Math.pow(10.0, lengthUnitPrefix.getValue());
+    }
+  }
+
+  @Override
+  public String getSchema() {
+    return SCHEMA;
+  }
+
+  @Override
+  public double getLengthUnitConversion() {
+    return lengthUnitConversion;
+  }
+
+  @Override
+  public List<? extends IdEObject> getProjects() {
+    return model.getAllWithSubTypes(IfcProject.class);
+  }
+
+  @Override
+  public List<? extends IdEObject> getProducts() {
+    return model.getAllWithSubTypes(IfcProduct.class);
+  }
+
+  @Override
+  public List<? extends IdEObject> getSpatialStructureElements() {
+    return model.getAllWithSubTypes(IfcSpatialStructureElement.class);
+  }
+
+  @Override
+  public IdEObject getByGlobalId(String globalId) {
+    return model.getByGuid(globalId);
+  }
+
+  @Override
+  public List<IdEObject> getContainedElements(IdEObject object) {
+    if (!(object instanceof IfcSpatialStructureElement)) {
+      return Collections.emptyList();
+    }
+    EList<IfcRelContainedInSpatialStructure> relList =
+        ((IfcSpatialStructureElement) object).getContainsElements();
+    if (relList == null || relList.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<IdEObject> children = new ArrayList<>();
+    for (IfcRelContainedInSpatialStructure rel : relList) {
+      children.addAll(rel.getRelatedElements());
+    }
+    return children;
+  }
+
+  @Override
+  public List<IdEObject> getDecomposingObjects(IdEObject object) {
+    if (!(object instanceof IfcObjectDefinition)) {
+      return Collections.emptyList();
+    }
+    EList<IfcRelDecomposes> relList = ((IfcObjectDefinition) object).getIsDecomposedBy();
+    if (relList == null || relList.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<IdEObject> children = new ArrayList<>();
+    for (IfcRelDecomposes rel : relList) {
+      children.addAll(rel.getRelatedObjects());
+    }
+    return children;
+  }
+
+  @Override
+  public List<IdEObject> getDecomposedObjects(IdEObject object) {
+    if (!(object instanceof IfcObjectDefinition)) {
+      return Collections.emptyList();
+    }
+    List<IdEObject> parents = new ArrayList<>();
+    for (IfcRelDecomposes rel : ((IfcObjectDefinition) object).getDecomposes()) {
+      if (rel.getRelatingObject() != null) {
+        parents.add(rel.getRelatingObject());
+      }
+    }
+    return parents;
+  }
+
+  @Override
+  public void visitRelationships(RelationshipVisitor visitor) {
+    for (IfcRelContainedInSpatialStructure rel :
+        model.getAllWithSubTypes(IfcRelContainedInSpatialStructure.class)) {
+      IfcSpatialStructureElement parent = rel.getRelatingStructure();
+      if (parent == null) continue;
+      for (IfcProduct child : rel.getRelatedElements()) {
+        visitor.visit(parent, child);
+      }
+    }
+    for (IfcRelDecomposes rel : model.getAllWithSubTypes(IfcRelDecomposes.class)) {
+      IfcObjectDefinition parent = rel.getRelatingObject();
+      if (parent == null) continue;
+      for (IfcObjectDefinition child : rel.getRelatedObjects()) {
+        visitor.visit(parent, child);
+      }
+    }
+  }
+
+  @Override
+  public boolean isObject(IdEObject object) {
+    return object instanceof IfcObject;
+  }
+
+  @Override
+  public boolean isProject(IdEObject object) {
+    return object instanceof IfcProject;
+  }
+
+  @Override
+  public boolean isProduct(IdEObject object) {
+    return object instanceof IfcProduct;
+  }
+
+  @Override
+  public boolean isSpatialStructureElement(IdEObject object) {
+    return object instanceof IfcSpatialStructureElement;
+  }
+
+  @Override
+  public boolean isSite(IdEObject object) {
+    return object instanceof IfcSite;
+  }
+
+  @Override
+  public boolean isSpace(IdEObject object) {
+    return object instanceof IfcSpace;
+  }
+
+  @Override
+  public boolean isSlab(IdEObject object) {
+    return object instanceof IfcSlab;
+  }
+
+  @Override
+  public String getGlobalId(IdEObject object) {
+    return object instanceof IfcRoot ? ((IfcRoot) object).getGlobalId() : null;
+  }
+
+  @Override
+  public String getName(IdEObject object) {
+    if (object instanceof IfcRoot && ((IfcRoot) object).isSetName()) {
+      return ((IfcRoot) object).getName();
+    }
+    return null;
+  }
+
+  @Override
+  public String getType(IdEObject object) {
+    if (object instanceof IfcSite) {
+      return ifcUtil.stripClassName(IfcSite.class);
+    }
+    String type = object instanceof IfcObject ? ((IfcObject) object).getObjectType() : null;
+    if (Strings.isNullOrEmpty(type)) {
+      type = ifcUtil.stripClassName(object.getClass());
+    }
+    return type;
+  }
+
+  @Override
+  public List<Integer> getRefLatitude(IdEObject site) {
+    if (!(site instanceof IfcSite)) {
+      return Collections.emptyList();
+    }
+    return ((IfcSite) site).getRefLatitude();
+  }
+
+  @Override
+  public List<Integer> getRefLongitude(IdEObject site) {
+    if (!(site instanceof IfcSite)) {
+      return Collections.emptyList();
+    }
+    return ((IfcSite) site).getRefLongitude();
+  }
+
+  @Override
+  public Double getRefElevation(IdEObject site) {
+    if (!(site instanceof IfcSite) || !((IfcSite) site).isSetRefElevation()) {
+      return null;
+    }
+    return ((IfcSite) site).getRefElevation();
+  }
+
+  @Override
+  public Map<String, String> getParameters(IdEObject idEObject) {
+    Map<String, String> parameters = new HashMap<>();
+    if (!(idEObject instanceof IfcObject)) {
+      return parameters;
+    }
+    IfcObject object = (IfcObject) idEObject;
+    parameters.putAll(getPropertiesFromDefinedBy(object.getIsDefinedBy()));
+    parameters.putAll(getParametersFromAssignments(object.getHasAssignments()));
+    parameters.putAll(getParametersFromAssociates(object.getHasAssociations()));
+    parameters.putAll(getParametersFromMaterialSelect(object));
+
+    if (object instanceof IfcSpatialStructureElement) {
+      IfcSpatialStructureElement spatialStructureElement = (IfcSpatialStructureElement) object;
+      if (spatialStructureElement.isSetLongName()) {
+        parameters.put(LONG_NAME_PROPERTY, spatialStructureElement.getLongName());
+      }
+    }
+    return parameters;
+  }
+
+  /**
+   * Maps {@link IfcObject}s to their corresponding {@link IfcMaterialSelect}s, which contains data
+   * regarding the type and/or thickness of the material layers.
+   */
+  private Map<IfcObject, IfcMaterialSelect> getObjectMaterialMap() {
+    if (objectMaterialMap != null) {
+      return objectMaterialMap;
+    }
+    objectMaterialMap = new HashMap<>();
+    for (IfcRelAssociatesMaterial associatesMaterial :
+        model.getAllWithSubTypes(IfcRelAssociatesMaterial.class)) {
+      for (IfcRoot root : associatesMaterial.getRelatedObjects()) {
+        if (!(root instanceof IfcObject)) continue;
+        IfcObject object = (IfcObject) root;
+        objectMaterialMap.put(object, associatesMaterial.getRelatingMaterial());
+      }
+    }
+    return objectMaterialMap;
+  }
+
+  /**
+   * Collects the {key, value} map for properties extracted from the list of {@link IfcRelDefines}s.
+   *
+   * @param isDefinedBy
+   * @return The {key, value} map properties from a list of {@link IfcRelDefines} of an
+   * {@link IfcObject};
+   */
+  private Map<String, String> getPropertiesFromDefinedBy(EList<IfcRelDefines> isDefinedBy) {
+    Map<String, String> parameters = new HashMap<>();
+    if (isDefinedBy == null || isDefinedBy.isEmpty()) {
+      return parameters;
+    }
+    for (IfcRelDefines ifcRelDefines : isDefinedBy) {
+      if (ifcRelDefines instanceof IfcRelDefinesByProperties) {
+        IfcRelDefinesByProperties relDefinesByProperties =
+            (IfcRelDefinesByProperties) ifcRelDefines;
+        IfcPropertySetDefinition relatingPropertyDefinition =
+            relDefinesByProperties.getRelatingPropertyDefinition();
+        if (relatingPropertyDefinition instanceof IfcPropertySet) {
+          IfcPropertySet propertySet = (IfcPropertySet) relatingPropertyDefinition;
+          for (IfcProperty ifcProperty : propertySet.getHasProperties()) {
+            if (ifcProperty instanceof IfcPropertySingleValue) {
+              IfcPropertySingleValue ifcPropertySingleValue = (IfcPropertySingleValue) ifcProperty;
+              String value =
+                  ifcUtil.getStringValueFromIfcValue(ifcPropertySingleValue.getNominalValue());
+              if (!Strings.isNullOrEmpty(value)) {
+                parameters.put(ifcPropertySingleValue.getName(), value);
+              }
+            } else {
+              diagnostics.record(UNKNOWN_PROPERTY, ifcProperty.getName());
+              continue;
+            }
+          }
+        } else if (relatingPropertyDefinition instanceof IfcElementQuantity) {
+          IfcElementQuantity ifcElementQuantity = (IfcElementQuantity) relatingPropertyDefinition;
+          for (IfcPhysicalQuantity ifcPhysicalQuantity : ifcElementQuantity.getQuantities()) {
+            String value = ifcUtil.getStringValueFromIfcPhysicalQuantity(ifcPhysicalQuantity);
+            if (!Strings.isNullOrEmpty(value)) {
+              parameters.put(ifcPhysicalQuantity.getName(), value);
+            }
+          }
+        } else {
+          diagnostics.record(UNKNOWN_PROPERTY_SET, relatingPropertyDefinition);
+          continue;
+        }
+      } else if (ifcRelDefines instanceof IfcRelDefinesByType) {
+        IfcRelDefinesByType relDefinesByType = (IfcRelDefinesByType) ifcRelDefines;
+        parameters.put(SPACE_CODE_PROPERTY, relDefinesByType.getRelatingType().getName());
+      }
+    }
+    return parameters;
+  }
+
+  /**
+   * Collects the {key, value} map for properties extracted from the list of {@link IfcRelAssigns}s.
+   *
+   * @param assignments
+   * @return The {key, value} map properties from a list of {@link IfcRelAssigns} of an
+   * {@link IfcObject};
+   */
+  private Map<String, String> getParametersFromAssignments(EList<IfcRelAssigns> assignments) {
+    Map<String, String> parameters = new HashMap<>();
+    if (assignments == null || assignments.isEmpty()) {
+      return parameters;
+    }
+    for (IfcRelAssigns assignment : assignments) {
+      if (assignment instanceof IfcRelAssignsToGroup) {
+        IfcRelAssignsToGroup relAssignsToGroup = (IfcRelAssignsToGroup) assignment;
+        IfcGroup relatingGroup = relAssignsToGroup.getRelatingGroup();
+        if (relatingGroup instanceof IfcZone) {
+          parameters.put(ZONE_PROPERTY , relatingGroup.getName());
+        }
+      }
+    }
+    return parameters;
+  }
+
+  /**
+   * Collects the {key, value} map for properties extracted from the list of
+   * {@link IfcRelAssociates}s.
+   *
+   * @param associations
+   * @return The {key, value} map properties from a list of {@link IfcRelAssociates} of an
+   * {@link IfcObject};
+   */
+  private Map<String, String> getParametersFromAssociates(EList<IfcRelAssociates> associations) {
+    Map<String, String> parameters = new HashMap<>();
+    if (associations == null || associations.isEmpty()) {
+      return parameters;
+    }
+    for (IfcRelAssociates association : associations) {
+      if (association instanceof IfcRelAssociatesMaterial) {
+        IfcRelAssociatesMaterial associatesMaterial = (IfcRelAssociatesMaterial) association;
+        parameters.putAll(getParameterFromMaterial(associatesMaterial.getRelatingMaterial()));
+      }
+    }
+    return parameters;
+  }
+
+  /**
+   * Collects the {key, value} map for properties regarding the {@link IfcObject}'s material.
+   *
+   * @param object
+   * @return The {key, value} map value properties describing the {@link IfcObject}'s material.
+   */
+  private Map<String, String> getParametersFromMaterialSelect(IfcObject object) {
+    Map<IfcObject, IfcMaterialSelect> materials = getObjectMaterialMap();
+    if (!materials.containsKey(object)) {
+      return new HashMap<>();
+    }
+    return getParameterFromMaterial(materials.get(object));
+  }
+
+  /**
+   * Collects the {key, value} map for properties from {@link IfcMaterialSelect} which describe the
+   * material properties.
+   *
+   * @param materialSelect
+   * @return The {key, value} map value properties describing the {@link IfcMaterialSelect}.
+   */
+  private Map<String, String> getParameterFromMaterial(IfcMaterialSelect materialSelect) {
+    Map<String, String> parameters = new HashMap<>();
+    if (materialSelect instanceof IfcMaterial) {
+      parameters.put(MATERIAL_NAME_PARAMETER, ((IfcMaterial) materialSelect).getName());
+    } else if (materialSelect instanceof IfcMaterialLayerSetUsage) {
+      IfcMaterialLayerSetUsage materialLayerSetUsage = (IfcMaterialLayerSetUsage) materialSelect;
+      IfcMaterialLayerSet layerSet = materialLayerSetUsage.getForLayerSet();
+      EList<IfcMaterialLayer> materialLayers = layerSet.getMaterialLayers();
+      IfcMaterialLayer ifcMaterialLayer = materialLayers.get(0);
+      parameters.put(MATERIAL_NAME_PARAMETER, ifcMaterialLayer.getMaterial().getName());
+      parameters.put(MATERIAL_THICKNESS_PARAMETER,
+          Double.toString(ifcMaterialLayer.getLayerThickness()));
+    }
+    return parameters;
+  }
+
+  @Override
+  public MaterialSet getMaterialSet(IdEObject object) {
+    if (!(object instanceof IfcObject)) {
+      return null;
+    }
+    IfcMaterialSelect materialSelect = getObjectMaterialMap().get(object);
+    return materialSelect == null ? null : getMaterialSet(materialSelect);
+  }
+
+  /**
+   * @param materialSelect
+   * @return The {@link MaterialSet} of the material, layer set or list, or null if it isn't
+   *     supported.
+   */
+  private MaterialSet getMaterialSet(IfcMaterialSelect materialSelect) {
+    if (materialSelect instanceof IfcMaterialLayerSetUsage) {
+      // Each usage is specific to an object, but its layer set is usually shared.
+      IfcMaterialLayerSet layerSet = ((IfcMaterialLayerSetUsage) materialSelect).getForLayerSet();
+      return layerSet == null ? null : getMaterialSet(layerSet);
+    }
+    if (materialSets.containsKey(materialSelect)) {
+      return materialSets.get(materialSelect);
+    }
+    List<MaterialSet.Layer> layers = new ArrayList<>();
+    String name = null;
+    if (materialSelect instanceof IfcMaterial) {
+      layers.add(getMaterialLayer((IfcMaterial) materialSelect, null));
+    } else if (materialSelect instanceof IfcMaterialList) {
+      for (IfcMaterial material : ((IfcMaterialList) materialSelect).getMaterials()) {
+        layers.add(getMaterialLayer(material, null));
+      }
+    } else if (materialSelect instanceof IfcMaterialLayerSet) {
+      IfcMaterialLayerSet layerSet = (IfcMaterialLayerSet) materialSelect;
+      name = layerSet.getLayerSetName();
+      for (IfcMaterialLayer layer : layerSet.getMaterialLayers()) {
+        layers.add(getMaterialLayer(layer.getMaterial(), layer.getLayerThickness()));
+      }
+    } else if (materialSelect instanceof IfcMaterialLayer) {
+      IfcMaterialLayer layer = (IfcMaterialLayer) materialSelect;
+      layers.add(getMaterialLayer(layer.getMaterial(), layer.getLayerThickness()));
+    } else {
+      diagnostics.record(UNKNOWN_MATERIAL, materialSelect);
+    }
+    MaterialSet materialSet = layers.isEmpty() ? null : new MaterialSet(name, layers);
+    materialSets.put(materialSelect, materialSet);
+    return materialSet;
+  }
+
+  /**
+   * @param material The material, or null.
+   * @param thickness The thickness of the layer, or null if it isn't a layer.
+   * @return The layer, with the color of the first styled representation of the material.
+   */
+  private MaterialSet.Layer getMaterialLayer(IfcMaterial material, Double thickness) {
+    if (material == null) {
+      return new MaterialSet.Layer(null, thickness, null);
+    }
+    double[] color = null;
+    for (IfcMaterialDefinitionRepresentation definition : material.getHasRepresentation()) {
+      for (IfcRepresentation representation : definition.getRepresentations()) {
+        color = getMaterial(representation);
+        if (color != null) break;
+      }
+      if (color != null) break;
+    }
+    return new MaterialSet.Layer(material.getName(), thickness, color);
+  }
+
+  @Override
+  public boolean hasRepresentation(IdEObject product) {
+    return product instanceof IfcProduct && ((IfcProduct) product).getRepresentation() != null;
+  }
+
+  @Override
+  public boolean hasGeometry(IdEObject product) {
+    if (!(product instanceof IfcProduct)) {
+      return false;
+    }
+    GeometryInfo geometryInfo = ((IfcProduct) product).getGeometry();
+    return geometryInfo != null && geometryInfo.getData() != null;
+  }
+
+  @Override
+  public Mesh getMesh(IdEObject product) {
+    if (!hasGeometry(product)) {
+      return null;
+    }
+    return Mesh.fromGeometryData(((IfcProduct) product).getGeometry().getData());
+  }
+
+  @Override
+  public HashCode hashGeometry(IdEObject product, HashFunction hashFunction) {
+    if (!hasGeometry(product)) {
+      return null;
+    }
+    GeometryData geometryData = ((IfcProduct) product).getGeometry().getData();
+    Hasher hasher = hashFunction.newHasher();
+    putBuffer(hasher, geometryData.getVertices());
+    putBuffer(hasher, geometryData.getNormals());
+    putBuffer(hasher, geometryData.getIndices());
+    return hasher.hash();
+  }
+
+  /**
+   * Hashes the length of the buffer before its bytes, so the boundaries between buffers are part
+   * of the hash.
+   */
+  private static void putBuffer(Hasher hasher, byte[] buffer) {
+    if (buffer == null) {
+      hasher.putInt(0);
+      return;
+    }
+    hasher.putInt(buffer.length);
+    hasher.putBytes(buffer);
+  }
+
+  @Override
+  public float[] getTransformation(IdEObject product) {
+    if (!hasGeometry(product)) {
+      return null;
+    }
+    byte[] geometryTransformation = ((IfcProduct) product).getGeometry().getTransformation();
+    if (geometryTransformation == null) {
+      return null;
+    }
+    ByteBuffer transformation = ByteBuffer.wrap(geometryTransformation);
+    transformation.order(ByteOrder.LITTLE_ENDIAN);
+    FloatBuffer floatBuffer = transformation.asFloatBuffer();
+    float[] matrix = new float[16];
+    for (int i = 0; i < matrix.length; i++) {
+      matrix[i] = floatBuffer.get();
+    }
+    return matrix;
+  }
+
+  /**
+   * Searches all {@link IfcStyledItem} that is referenced to the {@link IfcProduct} and returns
+   * the color {red, green, blue, alpha} for the {@link IfcProduct}.
+   *
+   * @param product
+   * @return The float array of the {@link IfcProduct}'s material's color. Null if doesn't exist.
+   */
+  @Override
+  public double[] getColor(IdEObject product) {
+    if (!(product instanceof IfcProduct)) {
+      return null;
+    }
+    IfcProductRepresentation representation = ((IfcProduct) product).getRepresentation();
+    if (representation != null) {
+      EList<IfcRepresentation> representations = representation.getRepresentations();
+      for (IfcRepresentation rep : representations) {
+        double[] material = getMaterial(rep);
+        if (material != null) {
+          return material;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Searches all {@link IfcStyledItem} that is referenced to the {@link IfcRepresentation} and
+   * returns the color {red, green, blue, alpha} for the {@link IfcRepresentation}.
+   *
+   * @param ifcRepresentation
+   * @return The float array of the {@link IfcProduct}'s material's color. Null if doesn't exist.
+   */
+  private double[] getMaterial(IfcRepresentation ifcRepresentation) {
+    EList<IfcRepresentationItem> items = ifcRepresentation.getItems();
+    for (IfcRepresentationItem item : items) {
+      if (item instanceof IfcStyledItem) {
+        double[] material = getColorAndTransparency((IfcStyledItem) item);
+        if (material != null) {
+          return material;
+        }
+      } else {
+        if (item instanceof IfcBooleanClippingResult) {
+          for (IfcStyledItem sItem :
+              getStyledItemsFromBooleanResult((IfcBooleanClippingResult) item)) {
+            double[] material = getColorAndTransparency(sItem);
+            if (material != null) {
+              return material;
+            }
+          }
+        }
+        EList<IfcStyledItem> styledByItem = item.getStyledByItem();
+        for (IfcStyledItem sItem : styledByItem) {
+          double[] material = getColorAndTransparency(sItem);
+          if (material != null) {
+            return material;
+          }
+        }
+        if (item instanceof IfcMappedItem) {
+          IfcMappedItem mappedItem = (IfcMappedItem) item;
+          double[] material = getMaterial(mappedItem.getMappingSource().getMappedRepresentation());
+          if (material != null) {
+            return material;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Collects all {@link IfcStyledItem}s referenced by the {@link IfcBooleanResult} and its
+   * components.
+   *
+   * @param booleanResult The {@link IfcBooleanResult} to extract the {@link IfcStyledItem}s from.
+   * @return The list of {@link IfcStyledItem}s.
+   */
+  private List<IfcStyledItem> getStyledItemsFromBooleanResult(IfcBooleanResult booleanResult) {
+    List<IfcStyledItem> styledItems = new ArrayList<>();
+    styledItems.addAll(getStyledItemsFromBooleanOperand(booleanResult.getFirstOperand()));
+    styledItems.addAll(getStyledItemsFromBooleanOperand(booleanResult.getSecondOperand()));
+    return styledItems;
+  }
+
+  /**
+   * Collects all {@link IfcStyledItem}s referenced by the {@link IfcBooleanOperand}.
+   *
+   * @param operand The {@link IfcBooleanOperand}.
+   * @return The {@link IfcStyledItem}s referenced by the {@link IfcBooleanOperand}.
+   */
+  private List<IfcStyledItem> getStyledItemsFromBooleanOperand(IfcBooleanOperand operand) {
+    List<IfcStyledItem> styledItems = new ArrayList<>();
+    if (operand instanceof IfcBooleanResult) {
+      styledItems.addAll(getStyledItemsFromBooleanResult((IfcBooleanResult) operand));
+    } else if (operand instanceof IfcSolidModel) {
+      styledItems.addAll(((IfcSolidModel) operand).getStyledByItem());
+    } else if (operand instanceof IfcHalfSpaceSolid) {
+      styledItems.addAll(((IfcHalfSpaceSolid) operand).getStyledByItem());
+    } else if (operand instanceof IfcCsgPrimitive3D) {
+      styledItems.addAll(((IfcCsgPrimitive3D) operand).getStyledByItem());
+    }
+    return styledItems;
+  }
+
+  /**
+   *
+   * @param sItem
+   * @return The style color and transparency in array of doubles {red, green, blue, alpha}.
+   */
+  private double[] getColorAndTransparency(IfcStyledItem sItem) {
+    EList<IfcPresentationStyleAssignment> styles = sItem.getStyles();
+    for (IfcPresentationStyleAssignment sa : styles) {
+      EList<IfcPresentationStyleSelect> styles2 = sa.getStyles();
+      for (IfcPresentationStyleSelect pss : styles2) {
+        if (pss instanceof IfcSurfaceStyle) {
+          IfcSurfaceStyle ss = (IfcSurfaceStyle) pss;
+          for (IfcSurfaceStyleElementSelect style : ss.getStyles()) {
+            if (style instanceof IfcSurfaceStyleRendering) {
+              IfcSurfaceStyleRendering ssr = (IfcSurfaceStyleRendering) style;
+              IfcColourRgb colour = ssr.getSurfaceColour();
+              double alpha = 1 - ssr.getTransparency();
+              if (colour != null) {
+                return new double[] {colour.getRed(), colour.getGreen(), colour.getBlue(), alpha};
+              }
+            } else {
+              diagnostics.record(UNSUPPORTED_SURFACE_STYLE,
+                  ifcUtil.stripClassName(style.getClass()));
+            }
+          }
+        }
+      }
+    }
+    return null;
+  }
+}
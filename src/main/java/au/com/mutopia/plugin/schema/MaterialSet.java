@@ -0,0 +1,103 @@
+package au.com.mutopia.plugin.schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Objects;
+
+/**
+ * The materials of an object, independent of the schema: a single material, a list of materials,
+ * or a set of layers with their thicknesses. Compared by value, so the many objects that share a
+ * material set in the model, or have equal copies of it, can share one entry in the output.
+ */
+public class MaterialSet {
+
+  private final String name;
+  private final List<Layer> layers;
+
+  /**
+   * @param name The name of the layer set, or null.
+   * @param layers
+   */
+  public MaterialSet(String name, List<Layer> layers) {
+    this.name = name;
+    this.layers = Collections.unmodifiableList(new ArrayList<>(layers));
+  }
+
+  /**
+   * @return The name of the layer set, or null if it has none or the materials aren't layered.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return The layers, or materials if they aren't layered, in their order in the model.
+   */
+  public List<Layer> getLayers() {
+    return layers;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof MaterialSet)) {
+      return false;
+    }
+    MaterialSet materialSet = (MaterialSet) other;
+    return Objects.equal(name, materialSet.name) && layers.equals(materialSet.layers);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(name, layers);
+  }
+
+  /**
+   * A material, with its thickness if it is a layer.
+   */
+  public static class Layer {
+    private final String material;
+    private final Double thickness;
+    private final double[] color;
+
+    /**
+     * @param material The name of the material, or null.
+     * @param thickness The thickness of the layer in model units, or null if it isn't a layer.
+     * @param color The surface color of the material as {red, green, blue, alpha}, or null.
+     */
+    public Layer(String material, Double thickness, double[] color) {
+      this.material = material;
+      this.thickness = thickness;
+      this.color = color;
+    }
+
+    public String getMaterial() {
+      return material;
+    }
+
+    public Double getThickness() {
+      return thickness;
+    }
+
+    public double[] getColor() {
+      return color;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Layer)) {
+        return false;
+      }
+      Layer layer = (Layer) other;
+      return Objects.equal(material, layer.material) && Objects.equal(thickness, layer.thickness)
+          && Arrays.equals(color, layer.color);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(material, thickness) * 31 + Arrays.hashCode(color);
+    }
+  }
+}
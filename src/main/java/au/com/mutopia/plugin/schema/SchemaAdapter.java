@@ -0,0 +1,190 @@
+package au.com.mutopia.plugin.schema;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.emf.IdEObject;
+
+import au.com.mutopia.plugin.geometry.Mesh;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+
+/**
+ * Reads the parts of an IFC model that the serializers write, independently of the schema the
+ * model was loaded with. Each supported schema has its own implementation working directly on that
+ * schema's classes, so the tree walk and writers are shared without converting the model first.
+ * <p>
+ * Objects are passed around as {@link IdEObject}s. Methods taking an object accept any object of
+ * the adapter's model, and answer false, null or an empty collection where the object doesn't
+ * have what is asked for.
+ */
+public interface SchemaAdapter {
+
+  /**
+   * Receives the parent and child of each spatial containment and decomposition relationship.
+   */
+  interface RelationshipVisitor {
+    void visit(IdEObject parent, IdEObject child);
+  }
+
+  /**
+   * @return The name of the schema, e.g. "IFC2X3TC1".
+   */
+  String getSchema();
+
+  /**
+   * @return The factor converting model lengths into meters.
+   */
+  double getLengthUnitConversion();
+
+  /**
+   * @return The projects of the model, which are the roots of the tree.
+   */
+  List<? extends IdEObject> getProjects();
+
+  /**
+   * @return All the products of the model, i.e. the objects which can have a placement and shape.
+   */
+  List<? extends IdEObject> getProducts();
+
+  /**
+   * @return All the spatial structure elements of the model, e.g. sites, buildings and storeys.
+   */
+  List<? extends IdEObject> getSpatialStructureElements();
+
+  /**
+   * @param globalId
+   * @return The object with the GlobalId, or null if there is none.
+   */
+  IdEObject getByGlobalId(String globalId);
+
+  /**
+   * @return The elements contained in a spatial structure element.
+   */
+  List<IdEObject> getContainedElements(IdEObject object);
+
+  /**
+   * @return The objects which decompose the object, e.g. the storeys of a building.
+   */
+  List<IdEObject> getDecomposingObjects(IdEObject object);
+
+  /**
+   * @return The objects which the object decomposes, i.e. its parents by decomposition.
+   */
+  List<IdEObject> getDecomposedObjects(IdEObject object);
+
+  /**
+   * Visits every spatial containment and decomposition relationship of the model once.
+   *
+   * @param visitor
+   */
+  void visitRelationships(RelationshipVisitor visitor);
+
+  /**
+   * @return Whether the object is a rooted object with an identity, which can be written to the
+   * tree.
+   */
+  boolean isObject(IdEObject object);
+
+  boolean isProject(IdEObject object);
+
+  boolean isProduct(IdEObject object);
+
+  boolean isSpatialStructureElement(IdEObject object);
+
+  boolean isSite(IdEObject object);
+
+  boolean isSpace(IdEObject object);
+
+  boolean isSlab(IdEObject object);
+
+  String getGlobalId(IdEObject object);
+
+  /**
+   * @return The name of the object, or null if it isn't set.
+   */
+  String getName(IdEObject object);
+
+  /**
+   * @return The object type of the object if set, otherwise the name of its IFC class.
+   */
+  String getType(IdEObject object);
+
+  /**
+   * @return The latitude of a site as degrees, minutes, seconds and optionally millionths of
+   * seconds.
+   */
+  List<Integer> getRefLatitude(IdEObject site);
+
+  /**
+   * @return The longitude of a site as degrees, minutes, seconds and optionally millionths of
+   * seconds.
+   */
+  List<Integer> getRefLongitude(IdEObject site);
+
+  /**
+   * @return The elevation of the site's reference point above sea level in model units, or null if
+   *     it isn't set.
+   */
+  Double getRefElevation(IdEObject site);
+
+  /**
+   * @return The parameters of the object from its property sets, quantities, zones, materials and
+   * long name.
+   */
+  Map<String, String> getParameters(IdEObject object);
+
+  /**
+   * The parameter names of the name and thickness of the object's first material in
+   * {@link #getParameters(IdEObject)}. The full materials are read with
+   * {@link #getMaterialSet(IdEObject)}.
+   */
+  String MATERIAL_NAME_PARAMETER = "material_name";
+  String MATERIAL_THICKNESS_PARAMETER = "material_thickness";
+
+  /**
+   * @return All the materials of the object, with the layers and thicknesses of layered materials
+   *     and the colors of the materials, or null if it has none. Objects sharing materials in the
+   *     model get the same {@link MaterialSet}.
+   */
+  MaterialSet getMaterialSet(IdEObject object);
+
+  /**
+   * @return Whether the product has a shape representation.
+   */
+  boolean hasRepresentation(IdEObject product);
+
+  /**
+   * @return Whether the product has triangulated geometry.
+   */
+  boolean hasGeometry(IdEObject product);
+
+  /**
+   * @return The triangulated geometry of the product, or null if it has none.
+   */
+  Mesh getMesh(IdEObject product);
+
+  /**
+   * Hashes the triangulated geometry of the product as stored, without reading it into a
+   * {@link Mesh}.
+   *
+   * @param product
+   * @param hashFunction
+   * @return The hash of the vertex, normal and index buffers, or null if the product has no
+   *     geometry.
+   */
+  HashCode hashGeometry(IdEObject product, HashFunction hashFunction);
+
+  /**
+   * @return The 4x4 matrix placing the geometry of the product in the model, in column-major order,
+   * or null if there is none.
+   */
+  float[] getTransformation(IdEObject product);
+
+  /**
+   * @return The surface color of the product as {red, green, blue, alpha}, or null if it has no
+   * surface style.
+   */
+  double[] getColor(IdEObject product);
+}
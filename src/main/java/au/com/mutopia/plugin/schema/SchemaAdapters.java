@@ -0,0 +1,47 @@
+package au.com.mutopia.plugin.schema;
+
+import java.util.Iterator;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.plugins.serializers.SerializerException;
+import org.eclipse.emf.ecore.EPackage;
+
+import au.com.mutopia.plugin.util.Diagnostics;
+
+/**
+ * Chooses the {@link SchemaAdapter} for a model from the package of its objects.
+ * <p>
+ * BIMserver 1.3 only loads models with the IFC2x3 TC1 schema, so {@link Ifc2x3SchemaAdapter} is
+ * the only implementation. An adapter for another schema only needs to be added here once the
+ * server provides that schema's classes.
+ */
+public class SchemaAdapters {
+
+  private SchemaAdapters() {
+  }
+
+  /**
+   * @param model
+   * @param diagnostics The {@link Diagnostics} to count unsupported model content in.
+   * @return The {@link SchemaAdapter} reading the model with its own schema's classes.
+   * @throws SerializerException If the schema of the model is not supported.
+   */
+  public static SchemaAdapter forModel(IfcModelInterface model, Diagnostics diagnostics)
+      throws SerializerException {
+    EPackage ePackage = getPackage(model);
+    if (ePackage == null || ePackage == Ifc2x3tc1Package.eINSTANCE) {
+      return new Ifc2x3SchemaAdapter(model, diagnostics);
+    }
+    throw new SerializerException("Unsupported IFC schema: " + ePackage.getName());
+  }
+
+  /**
+   * @return The package of the first object of the model, or null if the model is empty.
+   */
+  private static EPackage getPackage(IfcModelInterface model) {
+    Iterator<IdEObject> objects = model.getValues().iterator();
+    return objects.hasNext() ? objects.next().eClass().getEPackage() : null;
+  }
+}
@@ -0,0 +1,195 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bimserver.emf.IdEObject;
+
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+import au.com.mutopia.plugin.schema.SchemaAdapter.RelationshipVisitor;
+import au.com.mutopia.plugin.util.LongHashSet;
+import au.com.mutopia.plugin.util.LongLongHashMap;
+
+/**
+ * Index of the parents and children of each object in the tree, built in one pass over the spatial
+ * containment and decomposition relationships. Used to find the products that can't be reached
+ * from a project, e.g. elements that were never placed in a spatial structure, without walking the
+ * tree from each of them.
+ * <p>
+ * Every relationship is kept, so an object with several parents, e.g. an element contained in a
+ * storey and aggregated by an assembly, is reachable if any of them is. The relationships are
+ * stored as linked lists of edges in primitive arrays, keyed by oid, so no ids are boxed.
+ */
+public class ContainmentIndex {
+
+  private static final long NONE = -1;
+
+  /** The first edge from each parent to its children, by the parent's oid. */
+  private final LongLongHashMap firstChildEdges = new LongLongHashMap();
+  /** The first edge to each child from its parents, by the child's oid. */
+  private final LongLongHashMap firstParentEdges = new LongLongHashMap();
+  private long[] edgeParentOids = new long[16];
+  private long[] edgeChildOids = new long[16];
+  private int[] nextChildEdges = new int[16];
+  private int[] nextParentEdges = new int[16];
+  private int edgeCount = 0;
+
+  private final LongHashSet productOids = new LongHashSet();
+  private final long[] projectOids;
+
+  /**
+   * @param schemaAdapter The {@link SchemaAdapter} of the model to index.
+   */
+  public ContainmentIndex(final SchemaAdapter schemaAdapter) {
+    schemaAdapter.visitRelationships(new RelationshipVisitor() {
+      @Override
+      public void visit(IdEObject parent, IdEObject child) {
+        // The tree only follows relationships to objects, e.g. not to type objects.
+        if (child == null || !schemaAdapter.isObject(child)) return;
+        addEdge(parent.getOid(), child.getOid());
+        if (schemaAdapter.isProduct(parent)) {
+          productOids.add(parent.getOid());
+        }
+      }
+    });
+    List<? extends IdEObject> projects = schemaAdapter.getProjects();
+    projectOids = new long[projects.size()];
+    for (int i = 0; i < projectOids.length; i++) {
+      projectOids[i] = projects.get(i).getOid();
+    }
+  }
+
+  private void addEdge(long parentOid, long childOid) {
+    if (edgeCount == edgeParentOids.length) {
+      int capacity = edgeCount * 2;
+      edgeParentOids = Arrays.copyOf(edgeParentOids, capacity);
+      edgeChildOids = Arrays.copyOf(edgeChildOids, capacity);
+      nextChildEdges = Arrays.copyOf(nextChildEdges, capacity);
+      nextParentEdges = Arrays.copyOf(nextParentEdges, capacity);
+    }
+    int edge = edgeCount++;
+    edgeParentOids[edge] = parentOid;
+    edgeChildOids[edge] = childOid;
+    nextChildEdges[edge] = (int) firstChildEdges.get(parentOid, NONE);
+    nextParentEdges[edge] = (int) firstParentEdges.get(childOid, NONE);
+    firstChildEdges.put(parentOid, edge);
+    firstParentEdges.put(childOid, edge);
+  }
+
+  /**
+   * Finds the products that can't be reached from a project through any chain of parents, and
+   * returns the topmost of them: those without an unreachable product as a parent. The
+   * unreachable products are the roots and their subtrees. Products in a loop of parents that
+   * only loops back on itself, which only happens in malformed models, are rooted at the first of
+   * them in the given order.
+   *
+   * @param products All the products of the model.
+   * @return The roots of the unreachable subtrees, in the order of the given products.
+   */
+  public List<IdEObject> findUnassignedRoots(Iterable<? extends IdEObject> products) {
+    for (IdEObject product : products) {
+      productOids.add(product.getOid());
+    }
+    LongHashSet reachableOids = new LongHashSet();
+    for (long projectOid : projectOids) {
+      markSubtree(projectOid, reachableOids);
+    }
+
+    LongHashSet coveredOids = new LongHashSet();
+    LongHashSet rootOids = new LongHashSet();
+    for (IdEObject product : products) {
+      long oid = product.getOid();
+      if (!reachableOids.contains(oid) && !hasUnreachableProductParent(oid, reachableOids)) {
+        rootOids.add(oid);
+        markSubtree(oid, coveredOids);
+      }
+    }
+    // What is left unreachable and uncovered is below a loop of parents. Each loop without
+    // unreachable products above it is rooted at its first product, covering everything below.
+    for (IdEObject product : products) {
+      long oid = product.getOid();
+      if (!reachableOids.contains(oid) && !coveredOids.contains(oid)
+          && isInTopmostLoop(oid, reachableOids)) {
+        rootOids.add(oid);
+        markSubtree(oid, coveredOids);
+      }
+    }
+
+    List<IdEObject> roots = new ArrayList<>();
+    for (IdEObject product : products) {
+      if (rootOids.contains(product.getOid())) {
+        roots.add(product);
+      }
+    }
+    return roots;
+  }
+
+  private boolean hasUnreachableProductParent(long oid, LongHashSet reachableOids) {
+    for (int edge = (int) firstParentEdges.get(oid, NONE); edge != NONE;
+        edge = nextParentEdges[edge]) {
+      long parentOid = edgeParentOids[edge];
+      if (productOids.contains(parentOid) && !reachableOids.contains(parentOid)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether every unreachable product above the object is also below it, i.e. the object is in a
+   * loop of parents with no other unreachable products above the loop.
+   */
+  private boolean isInTopmostLoop(long oid, LongHashSet reachableOids) {
+    LongHashSet descendantOids = new LongHashSet();
+    markSubtree(oid, descendantOids);
+    LongHashSet ancestorOids = new LongHashSet();
+    ancestorOids.add(oid);
+    long[] stack = new long[16];
+    int stackSize = 0;
+    stack[stackSize++] = oid;
+    while (stackSize > 0) {
+      long childOid = stack[--stackSize];
+      for (int edge = (int) firstParentEdges.get(childOid, NONE); edge != NONE;
+          edge = nextParentEdges[edge]) {
+        long parentOid = edgeParentOids[edge];
+        if (!productOids.contains(parentOid) || reachableOids.contains(parentOid)
+            || !ancestorOids.add(parentOid)) {
+          continue;
+        }
+        if (!descendantOids.contains(parentOid)) {
+          return false;
+        }
+        if (stackSize == stack.length) {
+          stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = parentOid;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the object and everything below it to the set, without recursion. Objects already in the
+   * set aren't walked again, so loops end.
+   */
+  private void markSubtree(long rootOid, LongHashSet oids) {
+    if (!oids.add(rootOid)) return;
+    long[] stack = new long[16];
+    int stackSize = 0;
+    stack[stackSize++] = rootOid;
+    while (stackSize > 0) {
+      long oid = stack[--stackSize];
+      for (int edge = (int) firstChildEdges.get(oid, NONE); edge != NONE;
+          edge = nextChildEdges[edge]) {
+        long childOid = edgeChildOids[edge];
+        if (oids.add(childOid)) {
+          if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+          }
+          stack[stackSize++] = childOid;
+        }
+      }
+    }
+  }
+}
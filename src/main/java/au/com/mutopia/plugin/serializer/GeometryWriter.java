@@ -0,0 +1,347 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.io.IOException;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.geometry.Matrix;
+
+import au.com.mutopia.plugin.geometry.Georeference;
+import au.com.mutopia.plugin.geometry.Mesh;
+import au.com.mutopia.plugin.geometry.MeshCodec;
+import au.com.mutopia.plugin.geometry.MeshOptimizer;
+import au.com.mutopia.plugin.geometry.MeshWelder;
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+import au.com.mutopia.plugin.util.Diagnostics;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes the color and triangle geometry of products, read through a {@link SchemaAdapter}, shared
+ * by the serializers that output geometry.
+ */
+public class GeometryWriter {
+  public static final String NO_MATERIAL_STYLES = "No material styles found";
+  public static final String NO_GEOREFERENCE = "No site with a latitude and longitude";
+  /** The encoding of compressed meshes, see {@link MeshCodec}. */
+  public static final String COMPRESSED_ENCODING = "mesh-codec-" + MeshCodec.VERSION;
+
+  /**
+   * Part of the seed of the mesh id hash. Must change whenever the same stored geometry would be
+   * written differently, so clients don't reuse meshes cached from older versions.
+   */
+  private static final int MESH_ID_VERSION = 1;
+
+  /**
+   * The most position values of a mesh written without welding or compression, as clients of
+   * that output index with uint16. Larger meshes are written with their color only.
+   */
+  private static final int MAX_UNWELDED_VERTEX_VALUES = 49167;
+
+  private final SerializerSettings settings;
+  private final SchemaAdapter schemaAdapter;
+  private final Diagnostics diagnostics;
+  private final HashFunction meshIdFunction;
+  /** The site to write positions in ECEF from, or null to write them in model units. */
+  private final Georeference georeference;
+  /** The position bits of compressed meshes, clamped to the range {@link MeshCodec} supports. */
+  private final int positionBits;
+
+  /**
+   * @param settings
+   * @param schemaAdapter
+   * @param diagnostics The {@link Diagnostics} to count products without styles in.
+   */
+  public GeometryWriter(SerializerSettings settings, SchemaAdapter schemaAdapter,
+      Diagnostics diagnostics) {
+    this.settings = settings;
+    this.schemaAdapter = schemaAdapter;
+    this.diagnostics = diagnostics;
+    int seed = MESH_ID_VERSION << 2;
+    if (settings.isWeldVertices()) {
+      seed |= 1;
+    }
+    if (settings.isOptimizeMeshes()) {
+      seed |= 2;
+    }
+    positionBits = Math.max(1, Math.min(settings.getPositionBits(), MeshCodec.MAX_POSITION_BITS));
+    if (settings.isCompressGeometry()) {
+      // Quantized meshes are only interchangeable at the same precision.
+      seed |= positionBits << 8;
+    }
+    this.meshIdFunction = Hashing.murmur3_128(seed);
+    if (settings.isEcefPositions()) {
+      georeference = Georeference.forModel(schemaAdapter);
+      if (georeference == null) {
+        diagnostics.record(NO_GEOREFERENCE, "positions written in model units");
+      }
+    } else {
+      georeference = null;
+    }
+  }
+
+  /**
+   * @param product
+   * @return Whether the product has geometry data to write.
+   */
+  public boolean hasGeometry(IdEObject product) {
+    return schemaAdapter.hasGeometry(product);
+  }
+
+  /**
+   * A stable id for the content of the product's mesh: a 128-bit Murmur3 hash of its stored
+   * vertex, normal and index buffers, seeded with the settings that change how the mesh is
+   * written. Products with identical geometry share the id, within and across revisions,
+   * independently of their placement and color. When positions are written in ECEF they include
+   * the placement and site, so those are hashed too.
+   *
+   * @param product
+   * @return The mesh id as 32 hex digits, or null if the product has no geometry.
+   */
+  public String getMeshId(IdEObject product) {
+    HashCode hashCode = schemaAdapter.hashGeometry(product, meshIdFunction);
+    if (hashCode == null) {
+      return null;
+    }
+    if (georeference != null) {
+      Hasher hasher = meshIdFunction.newHasher().putBytes(hashCode.asBytes());
+      float[] transformation = schemaAdapter.getTransformation(product);
+      if (transformation != null) {
+        for (float value : transformation) {
+          hasher.putFloat(value);
+        }
+      }
+      for (double value : georeference.getEnuToEcef()) {
+        hasher.putDouble(value);
+      }
+      hasher.putDouble(schemaAdapter.getLengthUnitConversion());
+      hashCode = hasher.hash();
+    }
+    return hashCode.toString();
+  }
+
+  /**
+   * The color, mesh and placement of a product, read and checked before any of it is written.
+   */
+  public static class Geometry {
+    private final String meshId;
+    private final double[] color;
+    private final Mesh mesh;
+    private final float[] matrix;
+    /** The ECEF positions written instead of the mesh's, or null. */
+    private final double[] ecefPositions;
+
+    private Geometry(String meshId, double[] color, Mesh mesh, float[] matrix,
+        double[] ecefPositions) {
+      this.meshId = meshId;
+      this.color = color;
+      this.mesh = mesh;
+      this.matrix = matrix;
+      this.ecefPositions = ecefPositions;
+    }
+
+    /**
+     * @return The id from {@link GeometryWriter#getMeshId(IdEObject)}, or null if mesh ids aren't
+     *     enabled in the {@link SerializerSettings}.
+     */
+    public String getMeshId() {
+      return meshId;
+    }
+
+    public Mesh getMesh() {
+      return mesh;
+    }
+  }
+
+  /**
+   * Reads the material and geometry of the product. Duplicate vertices are welded and the mesh is
+   * reordered for vertex cache locality if enabled in the {@link SerializerSettings}. If ECEF
+   * positions are enabled and the model has a georeferenced site, the positions and normals are
+   * transformed in one pass over the mesh, and there is no placement matrix.
+   *
+   * @param product The product with material and geometry. Must have geometry, see
+   *     {@link #hasGeometry(IdEObject)}.
+   * @return The {@link Geometry} to write.
+   * @throws IllegalArgumentException If the geometry is malformed, e.g. has triangle indices out of
+   *     range or vertices that aren't finite.
+   */
+  public Geometry readGeometry(IdEObject product) {
+    String meshId = settings.isWriteMeshIds() ? getMeshId(product) : null;
+    Mesh mesh = schemaAdapter.getMesh(product);
+    checkMesh(mesh);
+    if (settings.isWeldVertices()) {
+      mesh = MeshWelder.weld(mesh);
+    }
+    if (settings.isOptimizeMeshes()) {
+      mesh = MeshOptimizer.optimize(mesh);
+    }
+    double[] colorData = schemaAdapter.getColor(product);
+    if (colorData == null) {
+      diagnostics.record(NO_MATERIAL_STYLES, schemaAdapter.getName(product));
+      if (schemaAdapter.isSpace(product)) {
+        colorData = new double[] {0.0, 1.0, 0.0, 0.9};
+      } else {
+        colorData = new double[] {1.0, 1.0, 1.0, 1.0};
+      }
+    }
+    float[] matrix = schemaAdapter.getTransformation(product);
+    if (matrix != null) {
+      checkFinite(matrix, "Transformation");
+    }
+    if (georeference != null) {
+      double[] ecefPositions = georeference.toEcefPositions(mesh.getPositions(), matrix,
+          schemaAdapter.getLengthUnitConversion());
+      mesh = new Mesh(mesh.getPositions(), georeference.toEcefNormals(mesh.getNormals(), matrix),
+          mesh.getIndices());
+      return new Geometry(meshId, colorData, mesh, null, ecefPositions);
+    }
+    if (matrix != null) {
+      matrix = Matrix.changeOrientation(matrix);
+    }
+    return new Geometry(meshId, colorData, mesh, matrix, null);
+  }
+
+  private static void checkMesh(Mesh mesh) {
+    checkFinite(mesh.getPositions(), "Vertex");
+    checkFinite(mesh.getNormals(), "Normal");
+    int vertexCount = mesh.getVertexCount();
+    for (int index : mesh.getIndices()) {
+      if (index < 0 || index >= vertexCount) {
+        throw new IllegalArgumentException("Triangle index " + index + " is out of range for "
+            + vertexCount + " vertices");
+      }
+    }
+  }
+
+  private static void checkFinite(float[] values, String name) {
+    for (float value : values) {
+      if (Float.isNaN(value) || Float.isInfinite(value)) {
+        throw new IllegalArgumentException(name + " value " + value + " is not finite");
+      }
+    }
+  }
+
+  /**
+   * Writes the material and geometry as a JSON object. With welding or compression enabled, meshes
+   * of any size are written in full and the "indexType" tells clients whether their indices fit in
+   * uint16 or need uint32 buffers. Without either, meshes larger than
+   * {@link #MAX_UNWELDED_VERTEX_VALUES} are written with their color only, as they always were.
+   *
+   * @param writer
+   * @param geometry The {@link Geometry} read by {@link #readGeometry(IdEObject)}.
+   * @throws IOException
+   */
+  public void writeGeometry(JsonWriter writer, Geometry geometry) throws IOException {
+    Mesh mesh = geometry.mesh;
+    writer.beginObject();
+
+    if (geometry.meshId != null) {
+      writer.name("meshId").value(geometry.meshId);
+    }
+    double[] colorData = geometry.color;
+    writer.name("color").beginArray();
+    writeDouble(writer, colorData[0]);
+    writeDouble(writer, colorData[1]);
+    writeDouble(writer, colorData[2]);
+    writeDouble(writer, colorData[3]);
+    writer.endArray();
+
+    if (!settings.isWeldVertices() && !settings.isCompressGeometry()
+        && mesh.getPositions().length > MAX_UNWELDED_VERTEX_VALUES) {
+      writer.endObject();
+      return;
+    }
+
+    writer.name("primitive").value("triangles");
+    writer.name("indexType").value(mesh.canUseShortIndices() ? "uint16" : "uint32");
+    if (settings.isCompressGeometry()) {
+      writeCompressedMesh(writer, geometry);
+    } else {
+      writeMesh(writer, geometry);
+    }
+
+    float[] matrix = geometry.matrix;
+    if (matrix != null) {
+      writer.name("matrix").beginArray();
+      for (int i = 0; i < matrix.length; i++) {
+        writeDouble(writer, matrix[i]);
+      }
+      writer.endArray();
+    }
+
+    writer.endObject();
+  }
+
+  /**
+   * Writes the positions, normals and triangles as JSON arrays.
+   */
+  private void writeMesh(JsonWriter writer, Geometry geometry) throws IOException {
+    Mesh mesh = geometry.mesh;
+    float[] positions = mesh.getPositions();
+    float[] normals = mesh.getNormals();
+    int[] indices = mesh.getIndices();
+    int totalNrVertexValues = positions.length;
+    writer.name("positions").beginArray();
+    if (geometry.ecefPositions != null) {
+      for (double position : geometry.ecefPositions) {
+        writeDouble(writer, position);
+      }
+    } else {
+      for (int i = 0; i < totalNrVertexValues; i++) {
+        writeDouble(writer, positions[i]);
+      }
+    }
+    writer.endArray();
+    writer.name("normals").beginArray();
+    for (int i = 0; i < normals.length; i++) {
+      writeDouble(writer, normals[i]);
+    }
+    writer.endArray();
+    writer.name("triangles").beginArray();
+    for (int i = 0; i + 2 < indices.length; i += 3) {
+      writeInteger(writer, indices[i]);
+      writeInteger(writer, indices[i + 1]);
+      writeInteger(writer, indices[i + 2]);
+    }
+    writer.endArray();
+  }
+
+  /**
+   * Writes the mesh as the base64 {@link MeshCodec} encoding of its positions, normals and
+   * triangles, with the {@link #COMPRESSED_ENCODING} it is in.
+   */
+  private void writeCompressedMesh(JsonWriter writer, Geometry geometry) throws IOException {
+    byte[] encoded;
+    if (geometry.ecefPositions != null) {
+      encoded = MeshCodec.encode(geometry.mesh, geometry.ecefPositions, positionBits,
+          MeshCodec.DEFAULT_NORMAL_BITS, true);
+    } else {
+      encoded = MeshCodec.encode(geometry.mesh, positionBits, MeshCodec.DEFAULT_NORMAL_BITS, true);
+    }
+    writer.name("encoding").value(COMPRESSED_ENCODING);
+    writer.name("data").value(BaseEncoding.base64().encode(encoded));
+  }
+
+  /**
+   * Writes a double value to json string. If value is NaN or infinite, which JSON can't
+   * represent, writes 0 instead.
+   *
+   * @param jsonWriter
+   * @param value
+   * @throws java.io.IOException
+   */
+  private void writeDouble(JsonWriter jsonWriter, double value) throws IOException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      value = 0;
+    }
+    jsonWriter.value(Double.valueOf(value));
+  }
+
+  private void writeInteger(JsonWriter jsonWriter, int value) throws IOException {
+    jsonWriter.value(value);
+  }
+}
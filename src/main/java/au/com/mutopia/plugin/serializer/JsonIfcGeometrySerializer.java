@@ -0,0 +1,194 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.plugins.ProgressHandler;
+import org.bimserver.plugins.serializers.AbstractGeometrySerializer;
+import org.bimserver.plugins.serializers.SerializerException;
+
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+import au.com.mutopia.plugin.schema.SchemaAdapters;
+import au.com.mutopia.plugin.serializer.GeometryWriter.Geometry;
+import au.com.mutopia.plugin.util.Diagnostics;
+import au.com.mutopia.plugin.util.Utf8StreamWriter;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Serializer for BimServer, to extract the geometry of Ifc products keyed by the geometry ids
+ * written by {@link JsonIfcTreeSerializerPlugin}. Writes every product of the model, so a batch of
+ * products is requested by downloading them by GlobalId, which gives the serializer a model of
+ * just the requested objects.
+ */
+public class JsonIfcGeometrySerializer extends AbstractGeometrySerializer {
+  private static final Logger log = Logger.getLogger(JsonIfcGeometrySerializer.class.getName());
+
+  private final SerializerSettings settings;
+  private SchemaAdapter schemaAdapter;
+  private GeometryWriter geometryWriter;
+  private Utf8StreamWriter outputWriter;
+  private final SerializationErrors errors = new SerializationErrors();
+  private final Diagnostics diagnostics = new Diagnostics();
+  private SerializationProgress progress = new SerializationProgress(null);
+
+  public JsonIfcGeometrySerializer() {
+    this(new SerializerSettings());
+  }
+
+  public JsonIfcGeometrySerializer(SerializerSettings settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Reports the progress of the next serialization to the handler. BIMserver 1.3 doesn't pass a
+   * progress handler to serializers, so this is for code that runs the serializer itself.
+   *
+   * @param progressHandler
+   */
+  public void setProgressHandler(ProgressHandler progressHandler) {
+    progress = new SerializationProgress(progressHandler);
+  }
+
+  /**
+   * @return The {@link SerializationProgress} of the current serialization, which can also cancel
+   *     it.
+   */
+  public SerializationProgress getProgress() {
+    return progress;
+  }
+
+  @Override
+  public void reset() {
+    errors.clear();
+    setMode(Mode.BODY);
+  }
+
+  /**
+   * Drops the state of the finished, failed or cancelled write, so the model data it indexed can
+   * be collected while the serializer itself is still referenced.
+   */
+  private void release() {
+    schemaAdapter = null;
+    geometryWriter = null;
+    outputWriter.setOutputStream(null);
+  }
+
+  /**
+   * @param out
+   * @return The {@link Utf8StreamWriter} writing to the stream, reusing the buffer of the previous
+   *     write.
+   */
+  private Utf8StreamWriter getOutputWriter(OutputStream out) {
+    if (outputWriter == null) {
+      outputWriter =
+          new Utf8StreamWriter(settings.getOutputBufferSize(), settings.getFlushInterval());
+    }
+    outputWriter.setOutputStream(out);
+    return outputWriter;
+  }
+
+  @Override
+  public boolean write(OutputStream out) throws SerializerException {
+    if (getMode() == Mode.BODY) {
+      JsonWriter jsonWriter = new JsonWriter(getOutputWriter(out));
+      diagnostics.clear();
+      try {
+        try {
+          schemaAdapter = SchemaAdapters.forModel(model, diagnostics);
+          geometryWriter = new GeometryWriter(settings, schemaAdapter, diagnostics);
+        } catch (SerializerException | RuntimeException e) {
+          errors.add(SerializationErrors.MODEL, e);
+          schemaAdapter = null;
+        }
+        progress.start(schemaAdapter == null ? 0 : schemaAdapter.getProducts().size());
+        writeGeometries(jsonWriter);
+        jsonWriter.flush();
+        progress.finish(outputWriter.getBytesWritten());
+      } catch (InterruptedIOException e) {
+        log.info(e.getMessage());
+      } catch (Exception e) {
+        log.severe(e.getMessage());
+      } finally {
+        diagnostics.report();
+        errors.report();
+        release();
+      }
+      setMode(Mode.FINISHED);
+      return true;
+    } else if (getMode() == Mode.FINISHED) {
+      return false;
+    }
+    return false;
+  }
+
+  /**
+   * Writes the geometry of each product of the downloaded model keyed by its geometry id, followed
+   * by the ids of the downloaded products that have a representation but no geometry, and the
+   * products whose geometry couldn't be read. Only the errors are written if the model itself
+   * couldn't be read.
+   *
+   * @param writer
+   * @throws IOException
+   */
+  private void writeGeometries(JsonWriter writer) throws IOException {
+    List<String> missingIds = new ArrayList<>();
+    writer.beginObject();
+    writer.name("geometry").beginObject();
+    if (schemaAdapter != null) {
+      for (IdEObject product : schemaAdapter.getProducts()) {
+        String missingId = writeGeometry(writer, product);
+        if (missingId != null) {
+          missingIds.add(missingId);
+        }
+      }
+    }
+    writer.endObject();
+    if (!missingIds.isEmpty()) {
+      writer.name("missing").beginArray();
+      for (String missingId : missingIds) {
+        writer.value(missingId);
+      }
+      writer.endArray();
+    }
+    errors.write(writer);
+    writer.endObject();
+  }
+
+  /**
+   * Writes the geometry of the product, read in full before any of it is written so a product
+   * that fails to read is left out of the output and recorded in the errors instead.
+   *
+   * @param writer
+   * @param product
+   * @return The geometry id of the product if it has a representation but no geometry and should
+   *     be listed as missing, otherwise null.
+   * @throws InterruptedIOException If the serialization was cancelled.
+   * @throws IOException
+   */
+  private String writeGeometry(JsonWriter writer, IdEObject product) throws IOException {
+    progress.checkCancelled();
+    String geometryId;
+    Geometry geometry;
+    try {
+      geometryId = schemaAdapter.getGlobalId(product);
+      if (!geometryWriter.hasGeometry(product)) {
+        // Only products with a representation have geometry ids to request.
+        return schemaAdapter.hasRepresentation(product) ? geometryId : null;
+      }
+      geometry = geometryWriter.readGeometry(product);
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, product, SerializationErrors.GEOMETRY, e);
+      return null;
+    }
+    writer.name(geometryId);
+    geometryWriter.writeGeometry(writer, geometry);
+    progress.productWritten(outputWriter.getBytesWritten());
+    return null;
+  }
+}
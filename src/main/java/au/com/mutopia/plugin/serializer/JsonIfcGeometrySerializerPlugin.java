@@ -0,0 +1,84 @@
+package au.com.mutopia.plugin.serializer;
+
+import org.bimserver.models.store.ObjectDefinition;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.PluginException;
+import org.bimserver.plugins.PluginManager;
+import org.bimserver.plugins.serializers.AbstractSerializerPlugin;
+import org.bimserver.plugins.serializers.EmfSerializer;
+
+/**
+ * Serializer plugin for BimServer, to extract the geometry of Ifc products by their geometry id.
+ * Companion to {@link JsonIfcTreeSerializerPlugin}, used to download a batch of products by
+ * GlobalId.
+ */
+public class JsonIfcGeometrySerializerPlugin extends AbstractSerializerPlugin {
+
+  private boolean initialized = false;
+  private static final String VERSION = "1.0";
+
+  @Override
+  public String getDescription() {
+    return "JsonIfcGeometrySerializer";
+  }
+
+  @Override
+  public String getVersion() {
+    return VERSION;
+  }
+
+  @Override
+  public void init(PluginManager pluginManager) throws PluginException {
+    initialized = true;
+  }
+
+  @Override
+  public boolean needsGeometry() {
+    return true;
+  }
+
+  @Override
+  public EmfSerializer createSerializer(PluginConfiguration pluginConfiguration) {
+    return new JsonIfcGeometrySerializer(new SerializerSettings(pluginConfiguration));
+  }
+
+  @Override
+  public String getDefaultName() {
+    return "JsonIfcGeometrySerializer";
+  }
+
+  @Override
+  public String getDefaultContentType() {
+    return "application/json";
+  }
+
+  @Override
+  public String getDefaultExtension() {
+    return "json";
+  }
+
+  @Override
+  public boolean isInitialized() {
+    return initialized;
+  }
+
+  @Override
+  public ObjectDefinition getSettingsDefinition() {
+    ObjectDefinition settingsDefinition = super.getSettingsDefinition();
+    JsonIfcGeometryTreeSerializerPlugin.addBooleanParameter(settingsDefinition,
+        SerializerSettings.WELD_VERTICES,
+        "Merge duplicate vertices and rewrite the triangle indices", false);
+    JsonIfcGeometryTreeSerializerPlugin.addBooleanParameter(settingsDefinition,
+        SerializerSettings.OPTIMIZE_MESHES,
+        "Reorder triangles and vertices for vertex cache and fetch locality", false);
+    JsonIfcGeometryTreeSerializerPlugin.addBooleanParameter(settingsDefinition,
+        SerializerSettings.ECEF_POSITIONS,
+        "Write geometry positions in earth-centered, earth-fixed coordinates", false);
+    JsonIfcGeometryTreeSerializerPlugin.addCompressionParameters(settingsDefinition);
+    JsonIfcGeometryTreeSerializerPlugin.addBooleanParameter(settingsDefinition,
+        SerializerSettings.WRITE_MESH_IDS, "Write a hash of the mesh content with the geometry",
+        false);
+    JsonIfcGeometryTreeSerializerPlugin.addOutputParameters(settingsDefinition);
+    return settingsDefinition;
+  }
+}
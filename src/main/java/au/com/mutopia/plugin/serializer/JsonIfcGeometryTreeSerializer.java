@@ -1,87 +1,47 @@
 package au.com.mutopia.plugin.serializer;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
-import org.bimserver.geometry.Matrix;
-import org.bimserver.models.ifc2x3tc1.GeometryData;
-import org.bimserver.models.ifc2x3tc1.GeometryInfo;
-import org.bimserver.models.ifc2x3tc1.IfcBooleanClippingResult;
-import org.bimserver.models.ifc2x3tc1.IfcBooleanOperand;
-import org.bimserver.models.ifc2x3tc1.IfcBooleanResult;
-import org.bimserver.models.ifc2x3tc1.IfcColourRgb;
-import org.bimserver.models.ifc2x3tc1.IfcCsgPrimitive3D;
-import org.bimserver.models.ifc2x3tc1.IfcElementQuantity;
-import org.bimserver.models.ifc2x3tc1.IfcGroup;
-import org.bimserver.models.ifc2x3tc1.IfcHalfSpaceSolid;
-import org.bimserver.models.ifc2x3tc1.IfcMappedItem;
-import org.bimserver.models.ifc2x3tc1.IfcMaterial;
-import org.bimserver.models.ifc2x3tc1.IfcMaterialLayer;
-import org.bimserver.models.ifc2x3tc1.IfcMaterialLayerSet;
-import org.bimserver.models.ifc2x3tc1.IfcMaterialLayerSetUsage;
-import org.bimserver.models.ifc2x3tc1.IfcMaterialSelect;
-import org.bimserver.models.ifc2x3tc1.IfcObject;
-import org.bimserver.models.ifc2x3tc1.IfcObjectDefinition;
-import org.bimserver.models.ifc2x3tc1.IfcPhysicalQuantity;
-import org.bimserver.models.ifc2x3tc1.IfcPresentationStyleAssignment;
-import org.bimserver.models.ifc2x3tc1.IfcPresentationStyleSelect;
-import org.bimserver.models.ifc2x3tc1.IfcProduct;
-import org.bimserver.models.ifc2x3tc1.IfcProductRepresentation;
-import org.bimserver.models.ifc2x3tc1.IfcProject;
-import org.bimserver.models.ifc2x3tc1.IfcProperty;
-import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
-import org.bimserver.models.ifc2x3tc1.IfcPropertySetDefinition;
-import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
-import org.bimserver.models.ifc2x3tc1.IfcRelAssigns;
-import org.bimserver.models.ifc2x3tc1.IfcRelAssignsToGroup;
-import org.bimserver.models.ifc2x3tc1.IfcRelAssociates;
-import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesMaterial;
-import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
-import org.bimserver.models.ifc2x3tc1.IfcRelDecomposes;
-import org.bimserver.models.ifc2x3tc1.IfcRelDefines;
-import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
-import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByType;
-import org.bimserver.models.ifc2x3tc1.IfcRepresentation;
-import org.bimserver.models.ifc2x3tc1.IfcRepresentationItem;
-import org.bimserver.models.ifc2x3tc1.IfcRoot;
-import org.bimserver.models.ifc2x3tc1.IfcSite;
-import org.bimserver.models.ifc2x3tc1.IfcSolidModel;
-import org.bimserver.models.ifc2x3tc1.IfcSpace;
-import org.bimserver.models.ifc2x3tc1.IfcSpatialStructureElement;
-import org.bimserver.models.ifc2x3tc1.IfcStyledItem;
-import org.bimserver.models.ifc2x3tc1.IfcSurfaceStyle;
-import org.bimserver.models.ifc2x3tc1.IfcSurfaceStyleElementSelect;
-import org.bimserver.models.ifc2x3tc1.IfcSurfaceStyleRendering;
-import org.bimserver.models.ifc2x3tc1.IfcZone;
-import org.bimserver.models.store.SIPrefix;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.plugins.ProgressHandler;
 import org.bimserver.plugins.renderengine.RenderEngineException;
 import org.bimserver.plugins.serializers.AbstractGeometrySerializer;
 import org.bimserver.plugins.serializers.SerializerException;
-import org.eclipse.emf.common.util.EList;
 
-import au.com.mutopia.plugin.util.IfcUtil;
+import au.com.mutopia.plugin.geometry.FootprintExtractor;
+import au.com.mutopia.plugin.geometry.FootprintExtractor.Footprint;
+import au.com.mutopia.plugin.geometry.Georeference;
+import au.com.mutopia.plugin.geometry.Mesh;
+import au.com.mutopia.plugin.schema.MaterialSet;
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+import au.com.mutopia.plugin.schema.SchemaAdapters;
+import au.com.mutopia.plugin.serializer.GeometryWriter.Geometry;
+import au.com.mutopia.plugin.util.LongHashSet;
+import au.com.mutopia.plugin.util.Diagnostics;
+import au.com.mutopia.plugin.util.Utf8StreamWriter;
 
-import com.google.common.base.Charsets;
-import com.google.common.base.Strings;
 import com.google.gson.stream.JsonWriter;
+import com.vividsolutions.jts.io.WKTWriter;
 
 /**
- * Serializer for BimServer, to extract Ifc object hierarchy, color and parameters.
+ * Serializer for BimServer, to extract Ifc object hierarchy, color and parameters. The model is
+ * read through the {@link SchemaAdapter} for its schema.
  */
 public class JsonIfcGeometryTreeSerializer extends AbstractGeometrySerializer {
   private static final Logger log = Logger.getLogger(JsonIfcGeometryTreeSerializer.class.getName());
 
-  private final IfcUtil ifcUtil = new IfcUtil();
+  private final SerializerSettings settings;
+  private final FootprintExtractor footprintExtractor = new FootprintExtractor();
+  private final WKTWriter wktWriter = new WKTWriter();
 
   public static final String AREA = "area";
   public static final String HEIGHT = "height";
@@ -89,43 +49,116 @@ public class JsonIfcGeometryTreeSerializer extends AbstractGeometrySerializer {
 
   private static final String PARAMETER = "parameters";
 
-  private static final String LONG_NAME_PROPERTY = "long_name";
-  private static final String ZONE_PROPERTY = "zone";
-  private static final String SPACE_CODE_PROPERTY = "space_code";
-  private static final String MATERIAL_NAME_PROPERTY = "material_name";
-  private static final String MATERIAL_THICKNESS_PROPERTY = "material_thickness";
+  private SchemaAdapter schemaAdapter;
+  private GeometryWriter geometryWriter;
+  private Utf8StreamWriter outputWriter;
+  private ObjectFilter objectFilter;
+  /** The objects written in full. */
+  private final LongHashSet writtenOids = new LongHashSet();
+  /** The objects only written as structure, which are written again if reached fully included. */
+  private final LongHashSet structureOids = new LongHashSet();
+  /** The objects that couldn't be read, which are left out wherever they are reached. */
+  private final LongHashSet failedOids = new LongHashSet();
+  private final ParameterTable parameterTable = new ParameterTable();
+  private final MaterialTable materialTable = new MaterialTable();
+  private final SerializationErrors errors = new SerializationErrors();
+  private final Diagnostics diagnostics = new Diagnostics();
+  private SerializationProgress progress = new SerializationProgress(null);
 
-  private List<Long> surfaceStyleIds = new ArrayList<>();
-  private HashMap<String, double[]> materialColorMap = new HashMap<>();
-  private HashMap<IfcObject, IfcMaterialSelect> objectMaterialMap = new HashMap<>();
+  private double lengthUnitConversion = 1.0; // Default to Meter;
 
-  private List<GeometryData> geometryDatas = new ArrayList<>();
-  private int sameGeometry = 0;
+  public JsonIfcGeometryTreeSerializer() {
+    this(new SerializerSettings());
+  }
 
-  private double lengthUnitConversion = 1.0; // Default to Meter;
-  private double areaUnitConversion = 1.0; // Default to Square Meter;
+  public JsonIfcGeometryTreeSerializer(SerializerSettings settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Reports the progress of the next serialization to the handler. BIMserver 1.3 doesn't pass a
+   * progress handler to serializers, so this is for code that runs the serializer itself.
+   *
+   * @param progressHandler
+   */
+  public void setProgressHandler(ProgressHandler progressHandler) {
+    progress = new SerializationProgress(progressHandler);
+  }
+
+  /**
+   * @return The {@link SerializationProgress} of the current serialization, which can also cancel
+   *     it.
+   */
+  public SerializationProgress getProgress() {
+    return progress;
+  }
 
   @Override
   public void reset() {
-    surfaceStyleIds.clear();
-    materialColorMap.clear();
-    geometryDatas.clear();
-    sameGeometry = 0;
+    writtenOids.clear();
+    structureOids.clear();
+    failedOids.clear();
+    parameterTable.clear();
+    materialTable.clear();
+    errors.clear();
     setMode(Mode.BODY);
   }
 
+  /**
+   * Drops the state of the finished, failed or cancelled write, so the model data it indexed can
+   * be collected while the serializer itself is still referenced.
+   */
+  private void release() {
+    schemaAdapter = null;
+    geometryWriter = null;
+    objectFilter = null;
+    writtenOids.clear();
+    structureOids.clear();
+    failedOids.clear();
+    outputWriter.setOutputStream(null);
+  }
+
+  /**
+   * @param out
+   * @return The {@link Utf8StreamWriter} writing to the stream, reusing the buffer of the previous
+   *     write.
+   */
+  private Utf8StreamWriter getOutputWriter(OutputStream out) {
+    if (outputWriter == null) {
+      outputWriter =
+          new Utf8StreamWriter(settings.getOutputBufferSize(), settings.getFlushInterval());
+    }
+    outputWriter.setOutputStream(out);
+    return outputWriter;
+  }
+
   @Override
   public boolean write(OutputStream out) throws SerializerException {
     if (getMode() == Mode.BODY) {
-      OutputStreamWriter outputStreamWriter = new OutputStreamWriter(out, Charsets.UTF_8);
-      JsonWriter jsonWriter = new JsonWriter(new BufferedWriter(outputStreamWriter));
+      JsonWriter jsonWriter = new JsonWriter(getOutputWriter(out));
+      diagnostics.clear();
       try {
-        calculateLengthUnitConversion();
-        mapObjectMaterials();
+        try {
+          schemaAdapter = SchemaAdapters.forModel(model, diagnostics);
+          lengthUnitConversion = schemaAdapter.getLengthUnitConversion();
+          geometryWriter = new GeometryWriter(settings, schemaAdapter, diagnostics);
+          objectFilter = new ObjectFilter(settings, schemaAdapter);
+        } catch (SerializerException | RuntimeException e) {
+          errors.add(SerializationErrors.MODEL, e);
+          schemaAdapter = null;
+        }
+        progress.start(schemaAdapter == null ? 0 : schemaAdapter.getProducts().size());
         writeIfcGeometryTree(jsonWriter);
         jsonWriter.flush();
+        progress.finish(outputWriter.getBytesWritten());
+      } catch (InterruptedIOException e) {
+        log.info(e.getMessage());
       } catch (Exception e) {
         log.severe(e.getMessage());
+      } finally {
+        diagnostics.report();
+        errors.report();
+        release();
       }
       setMode(Mode.FINISHED);
       return true;
@@ -136,35 +169,21 @@ public class JsonIfcGeometryTreeSerializer extends AbstractGeometrySerializer {
   }
 
   /**
-   * Calculates the length unit conversion used for geometry vertices (meter, millimeter, etc ...).
-   */
-  private void calculateLengthUnitConversion() {
-    SIPrefix lengthUnitPrefix = ifcUtil.getLengthUnitPrefix(model);
-    if (lengthUnitPrefix == null) {
-      lengthUnitConversion = 1;
-    } else {
-      lengthUnitConversion = Math.pow(10.0, lengthUnitPrefix.getValue());
-    }
-  }
-
-  /**
-   * Maps {@link IfcObject}s to their corresponding {@link IfcMaterialSelect}s, which contains data
-   * regarding the type and/or thickness of the material layers.
-   */
-  private void mapObjectMaterials() {
-    for (IfcRelAssociatesMaterial associatesMaterial :
-        model.getAllWithSubTypes(IfcRelAssociatesMaterial.class)) {
-      for (IfcRoot root : associatesMaterial.getRelatedObjects()) {
-        if (!(root instanceof IfcObject)) continue;
-        IfcObject object = (IfcObject) root;
-        objectMaterialMap.put(object, associatesMaterial.getRelatingMaterial());
-      }
-    }
-  }
-
-  /**
-   * Writes the {@Link IfcObject} hierarchies as tree structure, where {@link IfcProject}s
-   * are the root entity for each hierarchy.
+   * Writes the object hierarchies as tree structure, where projects are the root entity for each
+   * hierarchy. Objects excluded by the {@link ObjectFilter} are skipped along with their subtrees.
+   * <p>
+   * The tree is walked with an explicit stack, so deep hierarchies can't overflow the call stack.
+   * Each object is written once; later occurrences, e.g. an object both contained in and
+   * decomposing another, or a cycle in a malformed model, are written as a reference to its id.
+   * An object first reached where the {@link ObjectFilter} only keeps it as structure is written
+   * again in full if it is reached where it is included.
+   * Products outside of every project's tree are written afterwards by
+   * {@link #writeUnassigned(JsonWriter)}.
+   * <p>
+   * Each part of an object is read before any of it is written, so an object that fails to read is
+   * left out, or written without the part that failed, and the document stays valid JSON. The
+   * failures are written last as the "errors" section. If the model itself can't be read, only
+   * the errors are written.
    *
    * @param writer
    * @throws RenderEngineException
@@ -175,519 +194,474 @@ public class JsonIfcGeometryTreeSerializer extends AbstractGeometrySerializer {
       SerializerException, IOException {
     writer.beginObject();
     writer.name("data").beginArray();
-    for (IfcProject ifcProject : model.getAllWithSubTypes(IfcProject.class)) {
-      writeIfcTreeObject(writer, ifcProject);
+    if (schemaAdapter != null) {
+      for (IdEObject project : schemaAdapter.getProjects()) {
+        writeIfcTree(writer, project);
+      }
     }
     writer.endArray();
+    if (schemaAdapter != null) {
+      writeUnassigned(writer);
+    }
+    if (settings.isWriteParameters() && settings.isWriteParameterTable()) {
+      writer.name("parameterTable");
+      parameterTable.write(writer);
+    }
+    if (settings.isWriteMaterialTable()) {
+      writer.name("materials");
+      materialTable.write(writer);
+    }
+    errors.write(writer);
     writer.endObject();
   }
 
   /**
-   * Writes the {@Link IfcObject} within the tree hierarchy. Writes the longitude and latitude if
-   * the object is {@link IfcSite}.
+   * Writes the products that can't be reached from a project through containment or
+   * decomposition into an "unassigned" array, as trees rooted at the topmost unreachable product.
+   * The array is omitted if every product was reached.
    *
    * @param writer
-   * @param object The {@Link IfcObject} within the tree hierarchy.
    * @throws IOException
    */
-  private void writeIfcTreeObject(JsonWriter writer, IfcObject object) throws IOException {
-    writer.beginObject();
-    writer.name("id").value(object.getGlobalId());
-    String name = "unknown";
-    if (object.isSetName()) {
-      name = object.getName();
-    }
-    String type = object.getObjectType();
-    if (Strings.isNullOrEmpty(type)) {
-      type = ifcUtil.stripClassName(object.getClass());
-    }
-    if (object instanceof IfcSpatialStructureElement) {
-      IfcSpatialStructureElement spatialStructureElement = (IfcSpatialStructureElement) object;
-      if (spatialStructureElement instanceof IfcSite) {
-        type = ifcUtil.stripClassName(IfcSite.class);
-
-        IfcSite site = (IfcSite) spatialStructureElement;
-        EList<Integer> longitude = site.getRefLongitude();
-        EList<Integer> latitude = site.getRefLatitude();
-
-        writer.name("longitude").value(longitude.toString());
-        writer.name("latitude").value(latitude.toString());
-        writer.name("lengthUnitConversion").value(lengthUnitConversion);
+  private void writeUnassigned(JsonWriter writer) throws IOException {
+    List<IdEObject> roots;
+    try {
+      roots = new ContainmentIndex(schemaAdapter).findUnassignedRoots(
+          schemaAdapter.getProducts());
+    } catch (RuntimeException e) {
+      errors.add(SerializationErrors.UNASSIGNED, e);
+      return;
+    }
+    boolean started = false;
+    for (IdEObject root : roots) {
+      ObjectFilter.Inclusion inclusion;
+      try {
+        inclusion = objectFilter.getInclusion(root, false);
+      } catch (RuntimeException e) {
+        errors.add(schemaAdapter, root, SerializationErrors.OBJECT, e);
+        continue;
+      }
+      if (inclusion == ObjectFilter.Inclusion.EXCLUDED || failedOids.contains(root.getOid())
+          || isWritten(root.getOid(), inclusion)) {
+        continue;
+      }
+      if (!started) {
+        writer.name("unassigned").beginArray();
+        started = true;
       }
-      writeIfcTreeContainsElements(writer, spatialStructureElement);
+      writeIfcTree(writer, root);
     }
-    writer.name("name").value(name);
-    writer.name("type").value(type);
-    writeIfcTreeDecomposedBy(writer, object);
-    writeParameters(writer, object);
-
-    if (object instanceof IfcProduct) {
-      writeMaterialAndGeometry(writer, (IfcProduct) object);
+    if (started) {
+      writer.endArray();
     }
-    writer.endObject();
   }
 
   /**
-   * Writes the list of {@Link IfcObject}s that decomposes another parent {@Link IfcObject}.
+   * Writes the tree rooted at the object without recursion.
    *
-   * @param jsonWriter
-   * @param objectDefinition The parent {@Link IfcObject}.
+   * @param writer
+   * @param root
    * @throws IOException
    */
-  private void writeIfcTreeDecomposedBy(JsonWriter jsonWriter, IfcObjectDefinition objectDefinition)
-      throws IOException {
-    EList<IfcRelDecomposes> relList = objectDefinition.getIsDecomposedBy();
-    if (relList != null && !relList.isEmpty()) {
-      jsonWriter.name("decomposedBy").beginArray();
-      for (IfcRelDecomposes rel : relList) {
-        EList<IfcObjectDefinition> relatedObjects = rel.getRelatedObjects();
-        for (IfcObjectDefinition relatedObject : relatedObjects) {
-          if (relatedObject instanceof IfcObject) {
-            writeIfcTreeObject(jsonWriter, (IfcObject) relatedObject);
-          }
+  private void writeIfcTree(JsonWriter writer, IdEObject root) throws IOException {
+    Deque<TreeFrame> stack = new ArrayDeque<>();
+    enterIfcTreeObject(writer, stack, root, false);
+    while (!stack.isEmpty()) {
+      TreeFrame frame = stack.peek();
+      if (frame.children != null) {
+        if (frame.children.hasNext()) {
+          enterIfcTreeObject(writer, stack, frame.children.next(), frame.insideContainer);
+          continue;
         }
+        writer.endArray();
+        frame.children = null;
+      }
+      if (!startNextRelation(writer, frame)) {
+        writer.endObject();
+        stack.pop();
       }
-      jsonWriter.endArray();
     }
   }
 
   /**
-   * Writes the list of Parameters that defines the {@Link IfcObject}.
+   * Writes the object and pushes it onto the stack so its children are written next, unless it is
+   * excluded by the {@link ObjectFilter} or can't be read. Writes a reference instead if the object
+   * has already been written with at least the same inclusion. The object is only recorded as
+   * written once it has been, so an object that can't be read is never referenced.
    *
    * @param writer
-   * @param object The {@Link IfcObject}.
+   * @param stack
+   * @param object
+   * @param parentInsideContainer Whether the parent is below an included spatial container.
+   * @throws InterruptedIOException If the serialization was cancelled.
    * @throws IOException
    */
-  private void writeParameters(JsonWriter writer, IfcObject object) throws IOException {
-    Map<String, String> parameters = new HashMap<>();
-    parameters.putAll(getPropertiesFromDefinedBy(object.getIsDefinedBy()));
-    parameters.putAll(getParametersFromAssignments(object.getHasAssignments()));
-    parameters.putAll(getParametersFromAssociates(object.getHasAssociations()));
-    parameters.putAll(getParametersFromMaterialSelect(object));
-
-    if (object instanceof IfcSpatialStructureElement) {
-      IfcSpatialStructureElement spatialStructureElement = (IfcSpatialStructureElement) object;
-      if (spatialStructureElement.isSetLongName()) {
-        parameters.put(LONG_NAME_PROPERTY, spatialStructureElement.getLongName());
-      }
+  private void enterIfcTreeObject(JsonWriter writer, Deque<TreeFrame> stack, IdEObject object,
+      boolean parentInsideContainer) throws IOException {
+    progress.checkCancelled();
+    ObjectFilter.Inclusion inclusion;
+    boolean insideContainer;
+    String id;
+    try {
+      inclusion = objectFilter.getInclusion(object, parentInsideContainer);
+      insideContainer = objectFilter.isInsideContainer(object, parentInsideContainer);
+      id = schemaAdapter.getGlobalId(object);
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, object, SerializationErrors.OBJECT, e);
+      return;
     }
-    if (parameters != null && !parameters.isEmpty()) {
-      writer.name(PARAMETER).beginObject();
-      for (String parameterName : parameters.keySet()) {
-        writer.name(parameterName).value(parameters.get(parameterName));
-      }
+    long oid = object.getOid();
+    if (inclusion == ObjectFilter.Inclusion.EXCLUDED || failedOids.contains(oid)) {
+      return;
+    }
+    if (isWritten(oid, inclusion)) {
+      writer.beginObject();
+      writer.name("ref").value(id);
       writer.endObject();
+      return;
+    }
+    boolean included = inclusion == ObjectFilter.Inclusion.INCLUDED;
+    if (writeIfcTreeObject(writer, object, id, included)) {
+      (included ? writtenOids : structureOids).add(oid);
+      stack.push(new TreeFrame(object, insideContainer));
+    } else {
+      failedOids.add(oid);
     }
   }
 
   /**
-   * Collects the {key, value} map for properties extracted from the list of {@link IfcRelDefines}s.
-   *
-   * @param isDefinedBy
-   * @return The {key, value} map properties from a list of {@link IfcRelDefines} of an
-   * {@link IfcObject};
+   * @param oid
+   * @param inclusion
+   * @return Whether the object has been written in full, or as structure if that is all of it
+   *     that is included.
    */
-  private Map<String, String> getPropertiesFromDefinedBy(EList<IfcRelDefines> isDefinedBy) {
-    Map<String, String> parameters = new HashMap<>();
-    if (isDefinedBy == null || isDefinedBy.isEmpty()) {
-      return parameters;
-    }
-    for (IfcRelDefines ifcRelDefines : isDefinedBy) {
-      if (ifcRelDefines instanceof IfcRelDefinesByProperties) {
-        IfcRelDefinesByProperties relDefinesByProperties =
-            (IfcRelDefinesByProperties) ifcRelDefines;
-        IfcPropertySetDefinition relatingPropertyDefinition =
-            relDefinesByProperties.getRelatingPropertyDefinition();
-        if (relatingPropertyDefinition instanceof IfcPropertySet) {
-          IfcPropertySet propertySet = (IfcPropertySet) relatingPropertyDefinition;
-          for (IfcProperty ifcProperty : propertySet.getHasProperties()) {
-            if (ifcProperty instanceof IfcPropertySingleValue) {
-              IfcPropertySingleValue ifcPropertySingleValue = (IfcPropertySingleValue) ifcProperty;
-              String value =
-                  ifcUtil.getStringValueFromIfcValue(ifcPropertySingleValue.getNominalValue());
-              if (!Strings.isNullOrEmpty(value)) {
-                parameters.put(ifcPropertySingleValue.getName(), value);
-              }
-            } else {
-              log.info("Unknown IfcProperty value : " + ifcProperty.getName());
-              continue;
-            }
-          }
-        } else if (relatingPropertyDefinition instanceof IfcElementQuantity) {
-          IfcElementQuantity ifcElementQuantity = (IfcElementQuantity) relatingPropertyDefinition;
-          for (IfcPhysicalQuantity ifcPhysicalQuantity : ifcElementQuantity.getQuantities()) {
-            String value = ifcUtil.getStringValueFromIfcPhysicalQuantity(ifcPhysicalQuantity);
-            if (!Strings.isNullOrEmpty(value)) {
-              parameters.put(ifcPhysicalQuantity.getName(), value);
-            }
-          }
-        } else {
-          log.info("Unknown IfcPropertySetDefinition : " + relatingPropertyDefinition);
-          continue;
-        }
-      } else if (ifcRelDefines instanceof IfcRelDefinesByType) {
-        IfcRelDefinesByType relDefinesByType = (IfcRelDefinesByType) ifcRelDefines;
-        parameters.put(SPACE_CODE_PROPERTY, relDefinesByType.getRelatingType().getName());
-      }
-    }
-    return parameters;
+  private boolean isWritten(long oid, ObjectFilter.Inclusion inclusion) {
+    return writtenOids.contains(oid)
+        || (inclusion != ObjectFilter.Inclusion.INCLUDED && structureOids.contains(oid));
   }
 
   /**
-   * Collects the {key, value} map for properties extracted from the list of {@link IfcRelAssigns}s.
+   * Starts the JSON array of the frame's next non-empty relation, "contains" and then
+   * "decomposedBy". A relation that can't be read is recorded in the errors and skipped.
    *
-   * @param assignments
-   * @return The {key, value} map properties from a list of {@link IfcRelAssigns} of an
-   * {@link IfcObject};
+   * @param writer
+   * @param frame
+   * @return Whether a relation was started, false if the object has no more relations.
+   * @throws IOException
    */
-  private Map<String, String> getParametersFromAssignments(EList<IfcRelAssigns> assignments) {
-    Map<String, String> parameters = new HashMap<>();
-    if (assignments == null || assignments.isEmpty()) {
-      return parameters;
-    }
-    for (IfcRelAssigns assignment : assignments) {
-      if (assignment instanceof IfcRelAssignsToGroup) {
-        IfcRelAssignsToGroup relAssignsToGroup = (IfcRelAssignsToGroup) assignment;
-        IfcGroup relatingGroup = relAssignsToGroup.getRelatingGroup();
-        if (relatingGroup instanceof IfcZone) {
-          parameters.put(ZONE_PROPERTY , relatingGroup.getName());
+  private boolean startNextRelation(JsonWriter writer, TreeFrame frame) throws IOException {
+    while (frame.relation < TreeFrame.RELATIONS) {
+      int relation = frame.relation++;
+      List<IdEObject> children = new ArrayList<>();
+      try {
+        List<IdEObject> related = relation == TreeFrame.CONTAINS
+            ? schemaAdapter.getContainedElements(frame.object)
+            : schemaAdapter.getDecomposingObjects(frame.object);
+        for (IdEObject child : related) {
+          if (schemaAdapter.isObject(child)) {
+            children.add(child);
+          }
         }
+      } catch (RuntimeException e) {
+        errors.add(schemaAdapter, frame.object, SerializationErrors.CHILDREN, e);
+        continue;
       }
+      if (children.isEmpty()) continue;
+      writer.name(relation == TreeFrame.CONTAINS ? "contains" : "decomposedBy").beginArray();
+      frame.children = children.iterator();
+      return true;
     }
-    return parameters;
+    return false;
   }
 
   /**
-   * Collects the {key, value} map for properties extracted from the list of
-   * {@link IfcRelAssociates}s.
+   * Begins the JSON object of the object within the tree hierarchy and writes its fields, leaving
+   * it open for its children. Writes the longitude and latitude if the object is a site.
+   * Parameters and geometry are only written if the object is fully included by the
+   * {@link ObjectFilter} and enabled in the {@link SerializerSettings}.
+   * <p>
+   * All fields are read before the object is begun. If its name, type or site location can't be
+   * read the object isn't written at all; if its parameters, geometry or footprint can't be read
+   * the object is written without them.
    *
-   * @param associations
-   * @return The {key, value} map properties from a list of {@link IfcRelAssociates} of an
-   * {@link IfcObject};
+   * @param writer
+   * @param object The object within the tree hierarchy.
+   * @param id The GlobalId of the object.
+   * @param included Whether the object is fully included by the {@link ObjectFilter}.
+   * @return Whether the object was begun.
+   * @throws IOException
    */
-  private Map<String, String> getParametersFromAssociates(EList<IfcRelAssociates> associations) {
-    Map<String, String> parameters = new HashMap<>();
-    if (associations == null || associations.isEmpty()) {
-      return parameters;
-    }
-    for (IfcRelAssociates association : associations) {
-      if (association instanceof IfcRelAssociatesMaterial) {
-        IfcRelAssociatesMaterial associatesMaterial = (IfcRelAssociatesMaterial) association;
-        parameters.putAll(getParameterFromMaterial(associatesMaterial.getRelatingMaterial()));
+  private boolean writeIfcTreeObject(JsonWriter writer, IdEObject object, String id,
+      boolean included) throws IOException {
+    String name;
+    String type;
+    List<Integer> longitude = null;
+    List<Integer> latitude = null;
+    Georeference georeference = null;
+    boolean isProduct;
+    boolean product;
+    try {
+      name = schemaAdapter.getName(object);
+      if (name == null) {
+        name = "unknown";
+      }
+      type = schemaAdapter.getType(object);
+      if (schemaAdapter.isSite(object)) {
+        longitude = schemaAdapter.getRefLongitude(object);
+        latitude = schemaAdapter.getRefLatitude(object);
+        georeference = Georeference.fromSite(schemaAdapter, object);
+      }
+      isProduct = schemaAdapter.isProduct(object);
+      product = included && isProduct;
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, object, SerializationErrors.OBJECT, e);
+      return false;
+    }
+    Map<String, String> parameters = null;
+    if (included && settings.isWriteParameters()) {
+      parameters = readParameters(object);
+    }
+    MaterialSet materialSet = null;
+    if (included && settings.isWriteMaterialTable()) {
+      materialSet = readMaterialSet(object);
+      if (parameters != null) {
+        parameters.remove(SchemaAdapter.MATERIAL_NAME_PARAMETER);
+        parameters.remove(SchemaAdapter.MATERIAL_THICKNESS_PARAMETER);
+      }
+    }
+    boolean hasRepresentation = false;
+    String meshId = null;
+    Geometry geometry = null;
+    Footprint footprint = null;
+    if (product) {
+      hasRepresentation = settings.isWriteGeometryIds() && readHasRepresentation(object);
+      if (settings.isWriteGeometry()) {
+        geometry = readMaterialAndGeometry(object);
+      }
+      if (hasRepresentation && settings.isWriteMeshIds()) {
+        meshId = geometry != null ? geometry.getMeshId() : readMeshId(object);
+      }
+      if (settings.isWriteFootprints()) {
+        footprint = readFootprint(object, geometry == null ? null : geometry.getMesh());
       }
     }
-    return parameters;
+
+    writer.beginObject();
+    writer.name("id").value(id);
+    if (longitude != null) {
+      writer.name("longitude").value(longitude.toString());
+      writer.name("latitude").value(latitude.toString());
+      writer.name("lengthUnitConversion").value(lengthUnitConversion);
+    }
+    if (georeference != null) {
+      writeGeoreference(writer, georeference);
+    }
+    writer.name("name").value(name);
+    writer.name("type").value(type);
+    if (parameters != null) {
+      writeParameters(writer, id, parameters);
+    }
+    if (materialSet != null) {
+      writer.name("material").value(materialTable.indexOf(materialSet));
+    }
+    if (hasRepresentation) {
+      writer.name("geometryId").value(id);
+    }
+    if (meshId != null) {
+      writer.name("meshId").value(meshId);
+    }
+    if (geometry != null) {
+      writer.name("geometry");
+      geometryWriter.writeGeometry(writer, geometry);
+    }
+    if (footprint != null) {
+      writeFootprint(writer, footprint);
+    }
+    if (isProduct) {
+      progress.productWritten(outputWriter.getBytesWritten());
+    }
+    return true;
   }
 
   /**
-   * Collects the {key, value} map for properties regarding the {@link IfcObject}'s material.
-   *
    * @param object
-   * @return The {key, value} map value properties describing the {@link IfcObject}'s material.
+   * @return The parameters of the object, or null if they can't be read.
    */
-  private Map<String, String> getParametersFromMaterialSelect(IfcObject object) {
-    Map<String, String> parameters = new HashMap<>();
-    if (!objectMaterialMap.containsKey(object)) {
-      return parameters;
+  private Map<String, String> readParameters(IdEObject object) {
+    try {
+      return schemaAdapter.getParameters(object);
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, object, SerializationErrors.PARAMETERS, e);
+      return null;
     }
-    return getParameterFromMaterial(objectMaterialMap.get(object));
   }
 
   /**
-   * Collects the {key, value} map for properties from {@link IfcMaterialSelect} which describe the
-   * material properties.
-   *
-   * @param materialSelect
-   * @return The {key, value} map value properties describing the {@link IfcMaterialSelect}.
+   * @param object
+   * @return The materials of the object, or null if it has none or they can't be read.
    */
-  private Map<String, String> getParameterFromMaterial(IfcMaterialSelect materialSelect) {
-    Map<String, String> parameters = new HashMap<>();
-    if (materialSelect instanceof IfcMaterial) {
-      parameters.put(MATERIAL_NAME_PROPERTY, ((IfcMaterial) materialSelect).getName());
-    } else if (materialSelect instanceof IfcMaterialLayerSetUsage) {
-      IfcMaterialLayerSetUsage materialLayerSetUsage = (IfcMaterialLayerSetUsage) materialSelect;
-      IfcMaterialLayerSet layerSet = materialLayerSetUsage.getForLayerSet();
-      EList<IfcMaterialLayer> materialLayers = layerSet.getMaterialLayers();
-      IfcMaterialLayer ifcMaterialLayer = materialLayers.get(0);
-      parameters.put(MATERIAL_NAME_PROPERTY, ifcMaterialLayer.getMaterial().getName());
-      parameters.put(MATERIAL_THICKNESS_PROPERTY,
-          Double.toString(ifcMaterialLayer.getLayerThickness()));
-    }
-    return parameters;
+  private MaterialSet readMaterialSet(IdEObject object) {
+    try {
+      return schemaAdapter.getMaterialSet(object);
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, object, SerializationErrors.MATERIAL, e);
+      return null;
+    }
   }
 
   /**
-   * Writes the list of {@link IfcProduct}s that is contained within the parent
-   * {@link IfcSpatialStructureElement}.
+   * Writes the list of Parameters that defines the object, or adds them as a row of the
+   * {@link ParameterTable} if enabled in the {@link SerializerSettings}.
    *
-   * @param spatialStructureElement The parent {@link IfcSpatialStructureElement}.
+   * @param writer
+   * @param id The GlobalId of the object.
+   * @param parameters
    * @throws IOException
    */
-  private void writeIfcTreeContainsElements(JsonWriter writer,
-      IfcSpatialStructureElement spatialStructureElement) throws IOException {
-    EList<IfcRelContainedInSpatialStructure> relList =
-        spatialStructureElement.getContainsElements();
-    if (relList != null && !relList.isEmpty()) {
-      writer.name("contains");
-      writer.beginArray();
-      for (IfcRelContainedInSpatialStructure rel : relList) {
-        for (IfcProduct ifcProduct : rel.getRelatedElements()) {
-          writeIfcTreeObject(writer, ifcProduct);
-        }
+  private void writeParameters(JsonWriter writer, String id, Map<String, String> parameters)
+      throws IOException {
+    if (settings.isWriteParameterTable()) {
+      parameterTable.addRow(id, parameters);
+      return;
+    }
+    if (!parameters.isEmpty()) {
+      writer.name(PARAMETER).beginObject();
+      for (String parameterName : parameters.keySet()) {
+        writer.name(parameterName).value(parameters.get(parameterName));
       }
-      writer.endArray();
+      writer.endObject();
     }
   }
 
   /**
-   * Writes the material and geometry for the {@link IfcProduct}.
-   *
-   * @param writer
-   * @param product The {@link IfcProduct} with material and geometry.
-   * @throws IOException
+   * @param product
+   * @return Whether the product has a representation, false if it can't be read.
    */
-  private void writeMaterialAndGeometry(JsonWriter writer, IfcProduct product) throws IOException {
-    GeometryInfo geometryInfo = product.getGeometry();
-    if (geometryInfo != null && geometryInfo.getData() != null) {
-      GeometryData geometryData = geometryInfo.getData();
-      ByteBuffer indicesBuffer = ByteBuffer.wrap(geometryData.getIndices());
-      indicesBuffer.order(ByteOrder.LITTLE_ENDIAN);
-      ByteBuffer verticesBuffer = ByteBuffer.wrap(geometryData.getVertices());
-      verticesBuffer.order(ByteOrder.LITTLE_ENDIAN);
-      ByteBuffer normalsBuffer = ByteBuffer.wrap(geometryData.getNormals());
-      normalsBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-      int totalNrVertexValues = verticesBuffer.capacity() / 4;
-      int maxVertexValues = 49167; // Must be divisible by 9!
-
-      writer.name("geometry").beginObject();
-
-      double[] colorData = getMaterial(product);
-      if (colorData == null) {
-        log.info("No material styles found for: " + product.getName());
-        if (product instanceof IfcSpace) {
-          colorData = new double[] {0.0, 1.0, 0.0, 0.9};
-        } else {
-          colorData = new double[] {1.0, 1.0, 1.0, 1.0};
-        }
-      }
-      writer.name("color").beginArray();
-      writeDouble(writer, colorData[0]);
-      writeDouble(writer, colorData[1]);
-      writeDouble(writer, colorData[2]);
-      writeDouble(writer, colorData[3]);
-      writer.endArray();
-
-      if (totalNrVertexValues > maxVertexValues) {} else {
-        writer.name("primitive").value("triangles");
-        writer.name("positions").beginArray();
-        for (int i = 0; i < totalNrVertexValues; i++) {
-          writeDouble(writer, verticesBuffer.getFloat());
-        }
-        writer.endArray();
-        writer.name("normals").beginArray();
-        for (int i = 0; i < totalNrVertexValues; i++) {
-          writeDouble(writer, normalsBuffer.getFloat());
-        }
-        writer.endArray();
-        writer.name("triangles").beginArray();
-        for (int i = 0; i < indicesBuffer.capacity() / 4; i += 3) {
-          writeInteger(writer, indicesBuffer.getInt());
-          writeInteger(writer, indicesBuffer.getInt());
-          writeInteger(writer, indicesBuffer.getInt());
-        }
-        writer.endArray();
-
-        byte[] geometryTransformation = geometryInfo.getTransformation();
-        if (geometryTransformation != null) {
-          ByteBuffer transformation = ByteBuffer.wrap(geometryTransformation);
-          transformation.order(ByteOrder.LITTLE_ENDIAN);
-          FloatBuffer floatBuffer = transformation.asFloatBuffer();
-          float[] matrix = new float[16];
-          for (int i = 0; i < matrix.length; i++) {
-            matrix[i] = floatBuffer.get();
-          }
-          matrix = Matrix.changeOrientation(matrix);
-          writer.name("matrix").beginArray();
-          for (int i = 0; i < matrix.length; i++) {
-            writeDouble(writer, matrix[i]);
-          }
-          writer.endArray();
-        }
-      }
-
-      writer.endObject();
+  private boolean readHasRepresentation(IdEObject product) {
+    try {
+      return schemaAdapter.hasRepresentation(product);
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, product, SerializationErrors.GEOMETRY, e);
+      return false;
     }
   }
 
   /**
-   * Searches all {@link IfcStyledItem} that is referenced to the {@link IfcProduct} and returns
-   * the color {red, green, blue, alpha} for the {@link IfcProduct}.
+   * Hashes the product's stored geometry without decoding it, for writing mesh ids without
+   * geometry. The geometry must have been loaded with the model, so the serializers of plugins
+   * that don't need geometry can't write mesh ids.
    *
-   * @param ifcProduct
-   * @return The float array of the {@link IfcProduct}'s material's color. Null if doesn't exist.
+   * @param product
+   * @return The mesh id of the product, or null if it has no geometry or it can't be read.
    */
-  private double[] getMaterial(IfcProduct ifcProduct) {
-    IfcProductRepresentation representation = ifcProduct.getRepresentation();
-    if (representation != null) {
-      EList<IfcRepresentation> representations = representation.getRepresentations();
-      for (IfcRepresentation rep : representations) {
-        double[] material = getMaterial(rep);
-        if (material != null) {
-          return material;
-        }
-      }
+  private String readMeshId(IdEObject product) {
+    try {
+      return geometryWriter.getMeshId(product);
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, product, SerializationErrors.GEOMETRY, e);
+      return null;
     }
-    return null;
   }
 
   /**
-   * Searches all {@link IfcStyledItem} that is referenced to the {@link IfcRepresentation} and
-   * returns the color {red, green, blue, alpha} for the {@link IfcRepresentation}.
+   * Reads the material and geometry for the product.
    *
-   * @param ifcRepresentation
-   * @return The float array of the {@link IfcProduct}'s material's color. Null if doesn't exist.
+   * @param product The product with material and geometry.
+   * @return The {@link Geometry}, or null if the product has none or it can't be read.
    */
-  private double[] getMaterial(IfcRepresentation ifcRepresentation) {
-    EList<IfcRepresentationItem> items = ifcRepresentation.getItems();
-    for (IfcRepresentationItem item : items) {
-      if (item instanceof IfcStyledItem) {
-        double[] material = getColorAndTransparency((IfcStyledItem) item);
-        if (material != null) {
-          return material;
-        }
-      } else {
-        if (item instanceof IfcBooleanClippingResult) {
-          for (IfcStyledItem sItem :
-              getStyledItemsFromBooleanResult((IfcBooleanClippingResult) item)) {
-            double[] material = getColorAndTransparency(sItem);
-            if (material != null) {
-              return material;
-            }
-          }
-        }
-        EList<IfcStyledItem> styledByItem = item.getStyledByItem();
-        for (IfcStyledItem sItem : styledByItem) {
-          double[] material = getColorAndTransparency(sItem);
-          if (material != null) {
-            return material;
-          }
-        }
-        if (item instanceof IfcMappedItem) {
-          IfcMappedItem mappedItem = (IfcMappedItem) item;
-          double[] material = getMaterial(mappedItem.getMappingSource().getMappedRepresentation());
-          if (material != null) {
-            return material;
-          }
-        }
+  private Geometry readMaterialAndGeometry(IdEObject product) {
+    try {
+      if (geometryWriter.hasGeometry(product)) {
+        return geometryWriter.readGeometry(product);
       }
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, product, SerializationErrors.GEOMETRY, e);
     }
     return null;
   }
 
   /**
-   * Collects all {@link IfcStyledItem}s referenced by the {@link IfcBooleanResult} and its
-   * components.
+   * Extracts the 2D footprint of a space, or a slab if enabled in the {@link SerializerSettings},
+   * projected from its triangles onto the XY plane.
    *
-   * @param booleanResult The {@link IfcBooleanResult} to extract the {@link IfcStyledItem}s from.
-   * @return The list of {@link IfcStyledItem}s.
+   * @param product
+   * @param mesh The mesh already read for the product's geometry, or null to read it. Its positions
+   *     are in model units even when ECEF positions are written.
+   * @return The {@link Footprint}, or null if the product has none or it can't be read.
    */
-  private List<IfcStyledItem> getStyledItemsFromBooleanResult(IfcBooleanResult booleanResult) {
-    List<IfcStyledItem> styledItems = new ArrayList<>();
-    styledItems.addAll(getStyledItemsFromBooleanOperand(booleanResult.getFirstOperand()));
-    styledItems.addAll(getStyledItemsFromBooleanOperand(booleanResult.getSecondOperand()));
-    return styledItems;
+  private Footprint readFootprint(IdEObject product, Mesh mesh) {
+    try {
+      boolean hasFootprint = schemaAdapter.isSpace(product)
+          || (settings.isFootprintSlabs() && schemaAdapter.isSlab(product));
+      if (!hasFootprint || !geometryWriter.hasGeometry(product)) {
+        return null;
+      }
+      if (mesh == null) {
+        mesh = schemaAdapter.getMesh(product);
+      }
+      return footprintExtractor.extract(mesh, schemaAdapter.getTransformation(product),
+          settings.getFootprintTolerance() / lengthUnitConversion);
+    } catch (RuntimeException e) {
+      errors.add(schemaAdapter, product, SerializationErrors.FOOTPRINT, e);
+      return null;
+    }
   }
 
   /**
-   * Collects all {@link IfcStyledItem}s referenced by the {@link IfcBooleanOperand}.
+   * Writes the footprint as WKT in placed model units, with its {@link #AREA} and {@link #HEIGHT}
+   * in meters.
    *
-   * @param operand The {@link IfcBooleanOperand}.
-   * @return The {@link IfcStyledItem}s referenced by the {@link IfcBooleanOperand}.
+   * @param writer
+   * @param footprint
+   * @throws IOException
    */
-  private List<IfcStyledItem> getStyledItemsFromBooleanOperand(IfcBooleanOperand operand) {
-    List<IfcStyledItem> styledItems = new ArrayList<>();
-    if (operand instanceof IfcBooleanResult) {
-      styledItems.addAll(getStyledItemsFromBooleanResult((IfcBooleanResult) operand));
-    } else if (operand instanceof IfcSolidModel) {
-      styledItems.addAll(((IfcSolidModel) operand).getStyledByItem());
-    } else if (operand instanceof IfcHalfSpaceSolid) {
-      styledItems.addAll(((IfcHalfSpaceSolid) operand).getStyledByItem());
-    } else if (operand instanceof IfcCsgPrimitive3D) {
-      styledItems.addAll(((IfcCsgPrimitive3D) operand).getStyledByItem());
-    }
-    return styledItems;
+  private void writeFootprint(JsonWriter writer, Footprint footprint) throws IOException {
+    writer.name("footprint").beginObject();
+    writer.name("wkt").value(wktWriter.write(footprint.getGeometry()));
+    writer.name(AREA).value(footprint.getArea() * lengthUnitConversion * lengthUnitConversion);
+    writer.name(HEIGHT).value(footprint.getHeight() * lengthUnitConversion);
+    writer.endObject();
   }
 
   /**
+   * Writes the site's reference point in decimal degrees and its elevation in meters, with the
+   * column-major matrix from its east-north-up frame in meters to ECEF, so clients can place the
+   * site without parsing compound angles.
    *
-   * @param sItem
-   * @return The style color and transparency in array of doubles {red, green, blue, alpha}.
+   * @param writer
+   * @param georeference
+   * @throws IOException
    */
-  private double[] getColorAndTransparency(IfcStyledItem sItem) {
-    EList<IfcPresentationStyleAssignment> styles = sItem.getStyles();
-    for (IfcPresentationStyleAssignment sa : styles) {
-      EList<IfcPresentationStyleSelect> styles2 = sa.getStyles();
-      for (IfcPresentationStyleSelect pss : styles2) {
-        if (pss instanceof IfcSurfaceStyle) {
-          IfcSurfaceStyle ss = (IfcSurfaceStyle) pss;
-          for (IfcSurfaceStyleElementSelect style : ss.getStyles()) {
-            if (style instanceof IfcSurfaceStyleRendering) {
-              IfcSurfaceStyleRendering ssr = (IfcSurfaceStyleRendering) style;
-              IfcColourRgb colour = ssr.getSurfaceColour();
-              double alpha = 1 - ssr.getTransparency();
-              if (colour != null) {
-                return new double[] {colour.getRed(), colour.getGreen(), colour.getBlue(), alpha};
-              }
-            } else {
-              log.info("Surface style type: " + style.getClass().getSimpleName() + " is not " +
-                  "supported yet.");
-            }
-          }
-        }
-      }
+  private void writeGeoreference(JsonWriter writer, Georeference georeference)
+      throws IOException {
+    writer.name("latitudeDegrees").value(georeference.getLatitude());
+    writer.name("longitudeDegrees").value(georeference.getLongitude());
+    writer.name("elevation").value(georeference.getElevation());
+    writer.name("enuToEcef").beginArray();
+    for (double value : georeference.getEnuToEcef()) {
+      writer.value(value);
     }
-    return null;
+    writer.endArray();
   }
 
   /**
-   * Writes a double value to json string. If value is NaN, writes 0 instead.
-   *
-   * @param jsonWriter
-   * @param value
-   * @throws java.io.IOException
+   * An object on the stack of the tree walk whose JSON object is still open.
    */
-  private void writeDouble(JsonWriter jsonWriter, double value) throws IOException {
-    if (Double.isNaN(value)) {
-      value = 0;
+  private static class TreeFrame {
+    static final int CONTAINS = 0;
+    static final int DECOMPOSED_BY = 1;
+    static final int RELATIONS = 2;
+
+    final IdEObject object;
+    final boolean insideContainer;
+    /** The next relation to write, {@link #CONTAINS} or {@link #DECOMPOSED_BY}. */
+    int relation = CONTAINS;
+    /** The remaining children of the relation being written, or null if none is open. */
+    Iterator<IdEObject> children;
+
+    TreeFrame(IdEObject object, boolean insideContainer) {
+      this.object = object;
+      this.insideContainer = insideContainer;
     }
-    jsonWriter.value(Double.valueOf(value));
-  }
-
-  private void writeInteger(JsonWriter jsonWriter, Integer value) throws IOException {
-    jsonWriter.value(value.longValue());
-  }
-
-  @SuppressWarnings("unused")
-  private void reorder(ByteBuffer buffer, int nrFloats) {
-    buffer.position(0);
-    for (int i = 0; i < nrFloats; i += 9) {
-      float x1 = buffer.getFloat();
-      float y1 = buffer.getFloat();
-      float z1 = buffer.getFloat();
-      float x2 = buffer.getFloat();
-      float y2 = buffer.getFloat();
-      float z2 = buffer.getFloat();
-      float x3 = buffer.getFloat();
-      float y3 = buffer.getFloat();
-      float z3 = buffer.getFloat();
-      buffer.putFloat((i + 3) * 4, x3);
-      buffer.putFloat((i + 4) * 4, y3);
-      buffer.putFloat((i + 5) * 4, z3);
-      buffer.putFloat((i + 6) * 4, x2);
-      buffer.putFloat((i + 7) * 4, y2);
-      buffer.putFloat((i + 8) * 4, z2);
-    }
-    buffer.position(0);
   }
 }
@@ -1,12 +1,23 @@
 package au.com.mutopia.plugin.serializer;
 
+import org.bimserver.models.store.BooleanType;
+import org.bimserver.models.store.DoubleType;
+import org.bimserver.models.store.LongType;
 import org.bimserver.models.store.ObjectDefinition;
+import org.bimserver.models.store.ParameterDefinition;
+import org.bimserver.models.store.PrimitiveDefinition;
+import org.bimserver.models.store.PrimitiveEnum;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.models.store.StringType;
+import org.bimserver.models.store.Type;
 import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.PluginException;
 import org.bimserver.plugins.PluginManager;
 import org.bimserver.plugins.serializers.AbstractSerializerPlugin;
 import org.bimserver.plugins.serializers.EmfSerializer;
 
+import au.com.mutopia.plugin.geometry.MeshCodec;
+
 /**
  * Serializer plugin for BimServer, to extract Ifc object hierarchy, color and parameters.
  */
@@ -37,7 +48,7 @@ public class JsonIfcGeometryTreeSerializerPlugin extends AbstractSerializerPlugi
 
   @Override
   public EmfSerializer createSerializer(PluginConfiguration pluginConfiguration) {
-    return new JsonIfcGeometryTreeSerializer();
+    return new JsonIfcGeometryTreeSerializer(new SerializerSettings(pluginConfiguration));
   }
 
   @Override
@@ -62,6 +73,175 @@ public class JsonIfcGeometryTreeSerializerPlugin extends AbstractSerializerPlugi
 
   @Override
   public ObjectDefinition getSettingsDefinition() {
+    ObjectDefinition settingsDefinition = createSettingsDefinition();
+    addBooleanParameter(settingsDefinition, SerializerSettings.WELD_VERTICES,
+        "Merge duplicate vertices and rewrite the triangle indices", false);
+    addBooleanParameter(settingsDefinition, SerializerSettings.OPTIMIZE_MESHES,
+        "Reorder triangles and vertices for vertex cache and fetch locality", false);
+    addBooleanParameter(settingsDefinition, SerializerSettings.WRITE_GEOMETRY,
+        "Write the geometry of products", true);
+    addBooleanParameter(settingsDefinition, SerializerSettings.WRITE_GEOMETRY_IDS,
+        "Write the ids used to fetch the geometry of products separately", false);
+    addBooleanParameter(settingsDefinition, SerializerSettings.WRITE_MESH_IDS,
+        "Write a hash of the mesh content with the geometry and geometry ids", false);
+    addObjectDataParameters(settingsDefinition);
+    addBooleanParameter(settingsDefinition, SerializerSettings.WRITE_FOOTPRINTS,
+        "Write the 2D footprint, area and height of spaces", false);
+    addBooleanParameter(settingsDefinition, SerializerSettings.FOOTPRINT_SLABS,
+        "Write footprints for slabs as well as spaces", false);
+    addDoubleParameter(settingsDefinition, SerializerSettings.FOOTPRINT_TOLERANCE,
+        "Distance tolerance in meters for simplifying footprints", 0.01);
+    addBooleanParameter(settingsDefinition, SerializerSettings.ECEF_POSITIONS,
+        "Write geometry positions in earth-centered, earth-fixed coordinates", false);
+    addCompressionParameters(settingsDefinition);
+    addFilterParameters(settingsDefinition);
+    addOutputParameters(settingsDefinition);
+    return settingsDefinition;
+  }
+
+  /**
+   * @return The settings definition of {@link AbstractSerializerPlugin}, for subclasses that offer
+   *     a different set of settings.
+   */
+  protected ObjectDefinition createSettingsDefinition() {
     return super.getSettingsDefinition();
   }
+
+  /**
+   * Adds the parameters for writing the parameters and materials of objects, which don't need
+   * geometry, to the settings definition.
+   *
+   * @param settingsDefinition
+   */
+  static void addObjectDataParameters(ObjectDefinition settingsDefinition) {
+    addBooleanParameter(settingsDefinition, SerializerSettings.WRITE_PARAMETERS,
+        "Write the parameters of objects", true);
+    addBooleanParameter(settingsDefinition, SerializerSettings.WRITE_PARAMETER_TABLE,
+        "Write parameters as one column-oriented table instead of in each object", false);
+    addBooleanParameter(settingsDefinition, SerializerSettings.WRITE_MATERIAL_TABLE,
+        "Write all material layers once to a shared table referenced by index", false);
+  }
+
+  /**
+   * Adds the parameters for choosing which objects to write to the settings definition.
+   *
+   * @param settingsDefinition
+   */
+  static void addFilterParameters(ObjectDefinition settingsDefinition) {
+    addStringParameter(settingsDefinition, SerializerSettings.INCLUDE_TYPES,
+        "Comma separated IFC classes to write, e.g. IfcSpace. Empty for all");
+    addStringParameter(settingsDefinition, SerializerSettings.EXCLUDE_TYPES,
+        "Comma separated IFC classes to skip along with their subtrees");
+    addStringParameter(settingsDefinition, SerializerSettings.INCLUDE_CONTAINERS,
+        "Comma separated GlobalIds or names of the spatial containers to write. Empty for all");
+    addStringParameter(settingsDefinition, SerializerSettings.INCLUDE_GLOBAL_IDS,
+        "Comma separated GlobalIds of the objects to write. Empty for all");
+    addStringParameter(settingsDefinition, SerializerSettings.EXCLUDE_GLOBAL_IDS,
+        "Comma separated GlobalIds of the objects to skip along with their subtrees");
+  }
+
+  /**
+   * Adds an optional boolean parameter to the settings definition.
+   *
+   * @param settingsDefinition
+   * @param name The name of the parameter.
+   * @param description The description shown in the BIMserver admin interface.
+   * @param defaultValue
+   */
+  static void addBooleanParameter(ObjectDefinition settingsDefinition, String name,
+      String description, boolean defaultValue) {
+    PrimitiveDefinition booleanType = StoreFactory.eINSTANCE.createPrimitiveDefinition();
+    booleanType.setType(PrimitiveEnum.BOOLEAN);
+    BooleanType defaultType = StoreFactory.eINSTANCE.createBooleanType();
+    defaultType.setValue(defaultValue);
+    addParameter(settingsDefinition, name, description, booleanType, defaultType);
+  }
+
+  /**
+   * Adds an optional double parameter to the settings definition.
+   *
+   * @param settingsDefinition
+   * @param name The name of the parameter.
+   * @param description The description shown in the BIMserver admin interface.
+   * @param defaultValue
+   */
+  static void addDoubleParameter(ObjectDefinition settingsDefinition, String name,
+      String description, double defaultValue) {
+    PrimitiveDefinition doubleType = StoreFactory.eINSTANCE.createPrimitiveDefinition();
+    doubleType.setType(PrimitiveEnum.DOUBLE);
+    DoubleType defaultType = StoreFactory.eINSTANCE.createDoubleType();
+    defaultType.setValue(defaultValue);
+    addParameter(settingsDefinition, name, description, doubleType, defaultType);
+  }
+
+  /**
+   * Adds the parameters for compressing geometry to the settings definition.
+   *
+   * @param settingsDefinition
+   */
+  static void addCompressionParameters(ObjectDefinition settingsDefinition) {
+    addBooleanParameter(settingsDefinition, SerializerSettings.COMPRESS_GEOMETRY,
+        "Write geometry as quantized, delta coded and deflated base64", false);
+    addLongParameter(settingsDefinition, SerializerSettings.POSITION_BITS,
+        "Bits per position component of compressed geometry, from 1 to 30",
+        MeshCodec.DEFAULT_POSITION_BITS);
+  }
+
+  /**
+   * Adds the parameters for buffering and flushing the output to the settings definition.
+   *
+   * @param settingsDefinition
+   */
+  static void addOutputParameters(ObjectDefinition settingsDefinition) {
+    SerializerSettings defaults = new SerializerSettings();
+    addLongParameter(settingsDefinition, SerializerSettings.OUTPUT_BUFFER_SIZE,
+        "Size in bytes of the output buffer", defaults.getOutputBufferSize());
+    addLongParameter(settingsDefinition, SerializerSettings.FLUSH_INTERVAL,
+        "Bytes after which the output is flushed to the client, 0 to flush only at the end",
+        defaults.getFlushInterval());
+  }
+
+  /**
+   * Adds an optional long parameter to the settings definition.
+   *
+   * @param settingsDefinition
+   * @param name The name of the parameter.
+   * @param description The description shown in the BIMserver admin interface.
+   * @param defaultValue
+   */
+  static void addLongParameter(ObjectDefinition settingsDefinition, String name,
+      String description, long defaultValue) {
+    PrimitiveDefinition longType = StoreFactory.eINSTANCE.createPrimitiveDefinition();
+    longType.setType(PrimitiveEnum.LONG);
+    LongType defaultType = StoreFactory.eINSTANCE.createLongType();
+    defaultType.setValue(defaultValue);
+    addParameter(settingsDefinition, name, description, longType, defaultType);
+  }
+
+  /**
+   * Adds an optional string parameter with an empty default to the settings definition.
+   *
+   * @param settingsDefinition
+   * @param name The name of the parameter.
+   * @param description The description shown in the BIMserver admin interface.
+   */
+  static void addStringParameter(ObjectDefinition settingsDefinition, String name,
+      String description) {
+    PrimitiveDefinition stringType = StoreFactory.eINSTANCE.createPrimitiveDefinition();
+    stringType.setType(PrimitiveEnum.STRING);
+    StringType defaultType = StoreFactory.eINSTANCE.createStringType();
+    defaultType.setValue("");
+    addParameter(settingsDefinition, name, description, stringType, defaultType);
+  }
+
+  private static void addParameter(ObjectDefinition settingsDefinition, String name,
+      String description, PrimitiveDefinition type, Type defaultValue) {
+    ParameterDefinition parameter = StoreFactory.eINSTANCE.createParameterDefinition();
+    parameter.setName(name);
+    parameter.setDescription(description);
+    parameter.setRequired(false);
+    parameter.setType(type);
+    parameter.setDefaultValue(defaultValue);
+    settingsDefinition.getParameters().add(parameter);
+  }
 }
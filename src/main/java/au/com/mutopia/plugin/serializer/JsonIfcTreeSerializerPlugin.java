@@ -0,0 +1,53 @@
+package au.com.mutopia.plugin.serializer;
+
+import org.bimserver.models.store.ObjectDefinition;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.serializers.EmfSerializer;
+
+/**
+ * Serializer plugin for BimServer, to extract the Ifc object hierarchy and parameters without
+ * geometry. Products are written with a geometry id, so their geometry can be fetched on demand
+ * with {@link JsonIfcGeometrySerializerPlugin}.
+ */
+public class JsonIfcTreeSerializerPlugin extends JsonIfcGeometryTreeSerializerPlugin {
+
+  @Override
+  public String getDescription() {
+    return "JsonIfcTreeSerializer";
+  }
+
+  @Override
+  public boolean needsGeometry() {
+    return false;
+  }
+
+  @Override
+  public EmfSerializer createSerializer(PluginConfiguration pluginConfiguration) {
+    SerializerSettings settings = new SerializerSettings(pluginConfiguration);
+    settings.setWriteGeometry(false);
+    settings.setWriteGeometryIds(true);
+    // Without geometry data these would silently write nothing, e.g. from an older configuration.
+    settings.setWriteMeshIds(false);
+    settings.setWriteFootprints(false);
+    return new JsonIfcGeometryTreeSerializer(settings);
+  }
+
+  /**
+   * Offers only the settings that don't depend on geometry. BIMserver doesn't load the geometry of
+   * a model for a serializer that doesn't need it, so welding, mesh ids, footprints, ECEF
+   * positions and compression would have nothing to work on.
+   */
+  @Override
+  public ObjectDefinition getSettingsDefinition() {
+    ObjectDefinition settingsDefinition = createSettingsDefinition();
+    addObjectDataParameters(settingsDefinition);
+    addFilterParameters(settingsDefinition);
+    addOutputParameters(settingsDefinition);
+    return settingsDefinition;
+  }
+
+  @Override
+  public String getDefaultName() {
+    return "JsonIfcTreeSerializer";
+  }
+}
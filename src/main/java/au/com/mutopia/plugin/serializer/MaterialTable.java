@@ -0,0 +1,95 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.mutopia.plugin.schema.MaterialSet;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Table of the distinct {@link MaterialSet}s of the serialized objects, which refer to their
+ * materials by index into it instead of repeating them. Models where thousands of walls share a
+ * handful of layer sets write each layer set once:
+ *
+ * <pre>
+ * "materials": [{"name": "Brick Cavity Wall", "layers": [
+ *     {"material": "Brick", "thickness": 110.0, "color": [0.6, 0.3, 0.2, 1.0]},
+ *     {"material": "Air", "thickness": 50.0},
+ *     {"material": "Brick", "thickness": 110.0, "color": [0.6, 0.3, 0.2, 1.0]}]}]
+ * </pre>
+ *
+ * Thicknesses are in model units, and only written for layers. Materials are written in the order
+ * they were first referred to.
+ */
+public class MaterialTable {
+
+  private final List<MaterialSet> materialSets = new ArrayList<>();
+  private final Map<MaterialSet, Integer> indices = new HashMap<>();
+
+  /**
+   * @param materialSet
+   * @return The index of the material set in the table, adding it if it isn't in the table yet.
+   */
+  public int indexOf(MaterialSet materialSet) {
+    Integer index = indices.get(materialSet);
+    if (index == null) {
+      index = materialSets.size();
+      materialSets.add(materialSet);
+      indices.put(materialSet, index);
+    }
+    return index;
+  }
+
+  public int size() {
+    return materialSets.size();
+  }
+
+  public void clear() {
+    materialSets.clear();
+    indices.clear();
+  }
+
+  /**
+   * Writes the table as a JSON array.
+   *
+   * @param writer
+   * @throws IOException
+   */
+  public void write(JsonWriter writer) throws IOException {
+    writer.beginArray();
+    for (MaterialSet materialSet : materialSets) {
+      writer.beginObject();
+      if (materialSet.getName() != null) {
+        writer.name("name").value(materialSet.getName());
+      }
+      writer.name("layers").beginArray();
+      for (MaterialSet.Layer layer : materialSet.getLayers()) {
+        writer.beginObject();
+        if (layer.getMaterial() != null) {
+          writer.name("material").value(layer.getMaterial());
+        }
+        Double thickness = layer.getThickness();
+        if (thickness != null && !thickness.isNaN() && !thickness.isInfinite()) {
+          writer.name("thickness").value(thickness);
+        }
+        double[] color = layer.getColor();
+        if (color != null) {
+          writer.name("color").beginArray();
+          for (double component : color) {
+            // JSON can't represent NaN, e.g. from an unset transparency.
+            writer.value(Double.isNaN(component) || Double.isInfinite(component) ? 0 : component);
+          }
+          writer.endArray();
+        }
+        writer.endObject();
+      }
+      writer.endArray();
+      writer.endObject();
+    }
+    writer.endArray();
+  }
+}
@@ -0,0 +1,171 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.emf.IdEObject;
+import org.eclipse.emf.ecore.EClass;
+
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+
+/**
+ * Decides which objects of the tree are serialized, based on the include and exclude lists of the
+ * {@link SerializerSettings}. The decision is made before an object is visited, so excluded
+ * subtrees are never traversed.
+ * <p>
+ * IFC classes match their subtypes, so excluding {@code IfcBuildingElement} excludes walls and
+ * slabs too. When include lists are given, projects and spatial structure elements that don't
+ * match are kept as structure so the matching objects below them stay reachable.
+ */
+public class ObjectFilter {
+
+  /**
+   * How much of an object is serialized.
+   */
+  public enum Inclusion {
+    /** The object and its subtree are skipped. */
+    EXCLUDED,
+    /** Only the identity and children of the object are written. */
+    STRUCTURE,
+    /** The object is written in full. */
+    INCLUDED
+  }
+
+  private final SchemaAdapter schemaAdapter;
+  private final Set<String> includeTypes;
+  private final Set<String> excludeTypes;
+  private final Set<String> includeGlobalIds;
+  private final Set<String> excludeGlobalIds;
+  private final Set<String> includeContainers;
+
+  /**
+   * The oids of the included containers.
+   */
+  private final Set<Long> containerOids = new HashSet<>();
+
+  /**
+   * The oids of the spatial elements that decompose into an included container.
+   */
+  private final Set<Long> containerAncestorOids = new HashSet<>();
+
+  private final Map<EClass, Boolean> includeTypeMatches = new HashMap<>();
+  private final Map<EClass, Boolean> excludeTypeMatches = new HashMap<>();
+
+  /**
+   * @param settings The {@link SerializerSettings} with the include and exclude lists.
+   * @param schemaAdapter The {@link SchemaAdapter} of the model to resolve the included containers
+   *     in.
+   */
+  public ObjectFilter(SerializerSettings settings, SchemaAdapter schemaAdapter) {
+    this.schemaAdapter = schemaAdapter;
+    includeTypes = toLowerCase(settings.getIncludeTypes());
+    excludeTypes = toLowerCase(settings.getExcludeTypes());
+    includeGlobalIds = settings.getIncludeGlobalIds();
+    excludeGlobalIds = settings.getExcludeGlobalIds();
+    includeContainers = settings.getIncludeContainers();
+    if (!includeContainers.isEmpty()) {
+      findContainers();
+    }
+  }
+
+  private static Set<String> toLowerCase(Set<String> values) {
+    Set<String> lowerCaseValues = new HashSet<>();
+    for (String value : values) {
+      lowerCaseValues.add(value.toLowerCase());
+    }
+    return lowerCaseValues;
+  }
+
+  /**
+   * Finds the spatial structure elements whose GlobalId or name is an included container, and the
+   * spatial elements above them in the decomposition hierarchy.
+   */
+  private void findContainers() {
+    for (IdEObject element : schemaAdapter.getSpatialStructureElements()) {
+      String name = schemaAdapter.getName(element);
+      if (includeContainers.contains(schemaAdapter.getGlobalId(element))
+          || (name != null && includeContainers.contains(name))) {
+        containerOids.add(element.getOid());
+        addAncestors(element);
+      }
+    }
+  }
+
+  private void addAncestors(IdEObject object) {
+    for (IdEObject parent : schemaAdapter.getDecomposedObjects(object)) {
+      if (containerAncestorOids.add(parent.getOid())) {
+        addAncestors(parent);
+      }
+    }
+  }
+
+  /**
+   * @return Whether every object is included.
+   */
+  public boolean isEmpty() {
+    return includeTypes.isEmpty() && excludeTypes.isEmpty() && includeGlobalIds.isEmpty()
+        && excludeGlobalIds.isEmpty() && includeContainers.isEmpty();
+  }
+
+  /**
+   * @param object
+   * @param insideContainer Whether the object is below an included container, as returned by
+   *     {@link #isInsideContainer(IdEObject, boolean)} for its parent. False for the roots.
+   * @return How much of the object is serialized.
+   */
+  public Inclusion getInclusion(IdEObject object, boolean insideContainer) {
+    String globalId = schemaAdapter.getGlobalId(object);
+    if (excludeGlobalIds.contains(globalId)
+        || matchesType(object, excludeTypes, excludeTypeMatches)) {
+      return Inclusion.EXCLUDED;
+    }
+    if (!includeContainers.isEmpty() && !insideContainer
+        && !containerOids.contains(object.getOid())) {
+      return containerAncestorOids.contains(object.getOid()) || schemaAdapter.isProject(object)
+          ? Inclusion.STRUCTURE : Inclusion.EXCLUDED;
+    }
+    if (includeTypes.isEmpty() && includeGlobalIds.isEmpty()) {
+      return Inclusion.INCLUDED;
+    }
+    if (includeGlobalIds.contains(globalId)
+        || matchesType(object, includeTypes, includeTypeMatches)) {
+      return Inclusion.INCLUDED;
+    }
+    if (schemaAdapter.isProject(object) || schemaAdapter.isSpatialStructureElement(object)) {
+      return Inclusion.STRUCTURE;
+    }
+    return Inclusion.EXCLUDED;
+  }
+
+  /**
+   * @param object
+   * @param parentInsideContainer Whether the parent of the object is below an included container.
+   * @return Whether the children of the object are below an included container.
+   */
+  public boolean isInsideContainer(IdEObject object, boolean parentInsideContainer) {
+    return parentInsideContainer || includeContainers.isEmpty()
+        || containerOids.contains(object.getOid());
+  }
+
+  /**
+   * @return Whether the class of the object or one of its supertypes is in the set of lower case
+   * type names.
+   */
+  private boolean matchesType(IdEObject object, Set<String> types, Map<EClass, Boolean> matches) {
+    if (types.isEmpty()) {
+      return false;
+    }
+    EClass eClass = object.eClass();
+    Boolean match = matches.get(eClass);
+    if (match == null) {
+      match = types.contains(eClass.getName().toLowerCase());
+      for (EClass superType : eClass.getEAllSuperTypes()) {
+        match = match || types.contains(superType.getName().toLowerCase());
+      }
+      matches.put(eClass, match);
+    }
+    return match;
+  }
+}
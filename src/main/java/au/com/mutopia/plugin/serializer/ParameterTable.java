@@ -0,0 +1,126 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Column-oriented table of the parameters of the serialized objects, so analytics tools can load
+ * them as a data frame without walking the tree. Each row is an object, identified by its GlobalId
+ * in the "ids" column. Each parameter name is a column of dictionary codes, one per row, indexing
+ * into the column's own dictionary of distinct values, with {@link #MISSING} for objects without
+ * the parameter:
+ *
+ * <pre>
+ * {"rows": 3, "ids": ["a", "b", "c"],
+ *  "columns": {"FireRating": {"dictionary": ["2HR", "1HR"], "codes": [0, 0, 1]},
+ *              "zone": {"dictionary": ["North"], "codes": [-1, 0, -1]}}}
+ * </pre>
+ *
+ * Columns are written in the order their parameter names were first seen.
+ */
+public class ParameterTable {
+
+  /**
+   * The code of rows that don't have a value in a column.
+   */
+  public static final int MISSING = -1;
+
+  private final List<String> ids = new ArrayList<>();
+  private final Map<String, Column> columns = new LinkedHashMap<>();
+
+  /**
+   * Adds a row for an object.
+   *
+   * @param id The GlobalId of the object.
+   * @param parameters The parameters of the object.
+   */
+  public void addRow(String id, Map<String, String> parameters) {
+    int row = ids.size();
+    ids.add(id);
+    for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+      if (parameter.getKey() == null || parameter.getValue() == null) continue;
+      Column column = columns.get(parameter.getKey());
+      if (column == null) {
+        column = new Column();
+        columns.put(parameter.getKey(), column);
+      }
+      column.set(row, parameter.getValue());
+    }
+  }
+
+  public int getRowCount() {
+    return ids.size();
+  }
+
+  public void clear() {
+    ids.clear();
+    columns.clear();
+  }
+
+  /**
+   * Writes the table as a JSON object.
+   *
+   * @param writer
+   * @throws IOException
+   */
+  public void write(JsonWriter writer) throws IOException {
+    int rowCount = ids.size();
+    writer.beginObject();
+    writer.name("rows").value(rowCount);
+    writer.name("ids").beginArray();
+    for (String id : ids) {
+      writer.value(id);
+    }
+    writer.endArray();
+    writer.name("columns").beginObject();
+    for (Map.Entry<String, Column> entry : columns.entrySet()) {
+      Column column = entry.getValue();
+      writer.name(entry.getKey()).beginObject();
+      writer.name("dictionary").beginArray();
+      for (String value : column.dictionary) {
+        writer.value(value);
+      }
+      writer.endArray();
+      writer.name("codes").beginArray();
+      for (int row = 0; row < rowCount; row++) {
+        writer.value(row < column.codes.length ? column.codes[row] : MISSING);
+      }
+      writer.endArray();
+      writer.endObject();
+    }
+    writer.endObject();
+    writer.endObject();
+  }
+
+  /**
+   * The dictionary and codes of a parameter. The codes are grown as rows are set, and rows past
+   * the end are missing.
+   */
+  private static class Column {
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+    private int[] codes = new int[0];
+
+    void set(int row, String value) {
+      Integer code = dictionaryCodes.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        dictionary.add(value);
+        dictionaryCodes.put(value, code);
+      }
+      if (row >= codes.length) {
+        int oldLength = codes.length;
+        codes = Arrays.copyOf(codes, Math.max(row + 1, oldLength * 2));
+        Arrays.fill(codes, oldLength, codes.length, MISSING);
+      }
+      codes[row] = code;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bimserver.emf.IdEObject;
+
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Failures to read parts of single objects, collected while a document is written so the rest of
+ * it can still be written, and written as its "errors" section:
+ *
+ * <pre>
+ * "errors": [{"id": "2O2Fr$t4X7Zf8NOew3FLOH", "type": "IfcWall", "stage": "geometry",
+ *             "message": "IllegalArgumentException: ..."}]
+ * </pre>
+ *
+ * Only the first {@link #MAX_ERRORS} are kept, so a model that fails everywhere doesn't produce
+ * an errors section larger than the document. The number of dropped errors is written as
+ * "errorsOmitted". Each failure is logged at {@link Level#FINE} with its stack trace, and all of
+ * them are summarized once at {@link Level#WARNING} by {@link #report()}.
+ */
+public class SerializationErrors {
+  private static final Logger log = Logger.getLogger(SerializationErrors.class.getName());
+
+  public static final int MAX_ERRORS = 1000;
+
+  /** Reading the model as a whole, e.g. choosing its schema. */
+  public static final String MODEL = "model";
+  /** Reading the identity, name or type of an object. */
+  public static final String OBJECT = "object";
+  /** Reading the contained or decomposing objects of an object. */
+  public static final String CHILDREN = "children";
+  public static final String PARAMETERS = "parameters";
+  public static final String MATERIAL = "material";
+  public static final String GEOMETRY = "geometry";
+  public static final String FOOTPRINT = "footprint";
+  /** Finding the products outside of the project trees. */
+  public static final String UNASSIGNED = "unassigned";
+
+  private final List<Error> errors = new ArrayList<>();
+  private int omitted = 0;
+
+  private static class Error {
+    private final String id;
+    private final String type;
+    private final String stage;
+    private final String message;
+
+    Error(String id, String type, String stage, String message) {
+      this.id = id;
+      this.type = type;
+      this.stage = stage;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Records a failure.
+   *
+   * @param id The GlobalId of the object, or null if the failure isn't specific to an object or its
+   *     id couldn't be read.
+   * @param type The IFC class of the object, or null.
+   * @param stage What was being read, e.g. {@link #GEOMETRY}.
+   * @param exception
+   */
+  public void add(String id, String type, String stage, Exception exception) {
+    if (log.isLoggable(Level.FINE)) {
+      log.log(Level.FINE, "Failed to read " + stage + " of " + (id == null ? "model" : id),
+          exception);
+    }
+    if (errors.size() >= MAX_ERRORS) {
+      omitted++;
+      return;
+    }
+    String message = exception.getClass().getSimpleName();
+    if (exception.getMessage() != null) {
+      message += ": " + exception.getMessage();
+    }
+    errors.add(new Error(id, type, stage, message));
+  }
+
+  /**
+   * Records a failure that isn't specific to an object.
+   *
+   * @param stage What was being read, e.g. {@link #MODEL}.
+   * @param exception
+   */
+  public void add(String stage, Exception exception) {
+    add((String) null, null, stage, exception);
+  }
+
+  /**
+   * Records a failure to read part of an object, with its GlobalId and IFC class if they can
+   * still be read.
+   *
+   * @param schemaAdapter
+   * @param object
+   * @param stage What was being read, e.g. {@link #GEOMETRY}.
+   * @param exception
+   */
+  public void add(SchemaAdapter schemaAdapter, IdEObject object, String stage,
+      Exception exception) {
+    String id = null;
+    String type = null;
+    try {
+      id = schemaAdapter.getGlobalId(object);
+      type = schemaAdapter.getType(object);
+    } catch (RuntimeException e) {
+      // The object is too malformed to identify; record the failure without it.
+    }
+    add(id, type, stage, exception);
+  }
+
+  public boolean isEmpty() {
+    return errors.isEmpty();
+  }
+
+  public int size() {
+    return errors.size() + omitted;
+  }
+
+  public void clear() {
+    errors.clear();
+    omitted = 0;
+  }
+
+  /**
+   * Logs the number of failures and the first of them as a single {@link Level#WARNING} message,
+   * if there were any.
+   */
+  public void report() {
+    if (errors.isEmpty()) {
+      return;
+    }
+    Error first = errors.get(0);
+    log.warning("Failed to read " + size() + " parts of the model, first the " + first.stage
+        + " of " + (first.id == null ? "model" : first.id) + ": " + first.message);
+  }
+
+  /**
+   * Writes the "errors" array, and "errorsOmitted" if any were dropped, into the open JSON
+   * object. Writes nothing if there were no errors.
+   *
+   * @param writer
+   * @throws IOException
+   */
+  public void write(JsonWriter writer) throws IOException {
+    if (errors.isEmpty()) {
+      return;
+    }
+    writer.name("errors").beginArray();
+    for (Error error : errors) {
+      writer.beginObject();
+      if (error.id != null) {
+        writer.name("id").value(error.id);
+      }
+      if (error.type != null) {
+        writer.name("type").value(error.type);
+      }
+      writer.name("stage").value(error.stage);
+      writer.name("message").value(error.message);
+      writer.endObject();
+    }
+    writer.endArray();
+    if (omitted > 0) {
+      writer.name("errorsOmitted").value(omitted);
+    }
+  }
+}
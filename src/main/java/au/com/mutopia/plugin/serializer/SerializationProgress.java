@@ -0,0 +1,124 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.io.InterruptedIOException;
+
+import org.bimserver.plugins.ProgressHandler;
+
+/**
+ * Progress of a single serialization, counted as products written out of the products in the
+ * model, and the bytes written so far. The percentage is reported to a BIMserver
+ * {@link ProgressHandler} whenever it changes, and the counts can be read from other threads,
+ * e.g. to monitor a long download.
+ * <p>
+ * Also checks for cancellation between objects, so an abandoned serialization stops at the next
+ * object instead of writing the rest of the model: either {@link #cancel()} was called, or the
+ * serializing thread was interrupted, e.g. by the server giving up on the request.
+ */
+public class SerializationProgress {
+
+  private final ProgressHandler progressHandler;
+
+  private volatile int totalProducts = 0;
+  private volatile int productsWritten = 0;
+  private volatile long bytesWritten = 0;
+  private volatile boolean cancelled = false;
+  private int lastPercentage = -1;
+
+  /**
+   * @param progressHandler The {@link ProgressHandler} to report the percentage to, or null.
+   */
+  public SerializationProgress(ProgressHandler progressHandler) {
+    this.progressHandler = progressHandler;
+  }
+
+  /**
+   * Starts counting a new serialization. A pending {@link #cancel()} is kept, so a serialization
+   * cancelled before it started doesn't run.
+   *
+   * @param totalProducts The number of products in the model.
+   */
+  public void start(int totalProducts) {
+    this.totalProducts = totalProducts;
+    productsWritten = 0;
+    bytesWritten = 0;
+    lastPercentage = -1;
+    report();
+  }
+
+  /**
+   * Counts a written product.
+   *
+   * @param bytesWritten The bytes written so far, including those of the product.
+   */
+  public void productWritten(long bytesWritten) {
+    productsWritten++;
+    this.bytesWritten = bytesWritten;
+    report();
+  }
+
+  /**
+   * Counts the end of the serialization, reporting 100% even if some products weren't written,
+   * e.g. because they were filtered out.
+   *
+   * @param bytesWritten The total bytes written.
+   */
+  public void finish(long bytesWritten) {
+    this.bytesWritten = bytesWritten;
+    if (progressHandler != null && lastPercentage != 100) {
+      lastPercentage = 100;
+      progressHandler.progress(100);
+    }
+  }
+
+  private void report() {
+    if (progressHandler == null) {
+      return;
+    }
+    int percentage = totalProducts == 0 ? 0
+        : (int) Math.min(99, (long) productsWritten * 100 / totalProducts);
+    if (percentage != lastPercentage) {
+      lastPercentage = percentage;
+      progressHandler.progress(percentage);
+    }
+  }
+
+  /**
+   * Requests the serialization to stop before its next object. May be called from any thread.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * @return Whether the serialization was cancelled, or the calling thread, which should be the
+   *     serializing thread, was interrupted.
+   */
+  public boolean isCancelled() {
+    return cancelled || Thread.currentThread().isInterrupted();
+  }
+
+  /**
+   * Throws if the serialization should stop. The interrupted status of the thread is kept for the
+   * caller.
+   *
+   * @throws InterruptedIOException If the serialization was cancelled or interrupted.
+   */
+  public void checkCancelled() throws InterruptedIOException {
+    if (isCancelled()) {
+      throw new InterruptedIOException("Serialization cancelled after " + productsWritten + " of "
+          + totalProducts + " products");
+    }
+  }
+
+  public int getTotalProducts() {
+    return totalProducts;
+  }
+
+  public int getProductsWritten() {
+    return productsWritten;
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+}
@@ -0,0 +1,392 @@
+package au.com.mutopia.plugin.serializer;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.bimserver.plugins.PluginConfiguration;
+
+import au.com.mutopia.plugin.geometry.MeshCodec;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+
+/**
+ * Options for {@link JsonIfcGeometryTreeSerializer}, read from the {@link PluginConfiguration}
+ * defined by {@link JsonIfcGeometryTreeSerializerPlugin#getSettingsDefinition()}.
+ */
+public class SerializerSettings {
+
+  public static final String WELD_VERTICES = "WeldVertices";
+  public static final String OPTIMIZE_MESHES = "OptimizeMeshes";
+  public static final String WRITE_GEOMETRY = "WriteGeometry";
+  public static final String WRITE_PARAMETERS = "WriteParameters";
+  public static final String WRITE_GEOMETRY_IDS = "WriteGeometryIds";
+  public static final String WRITE_MESH_IDS = "WriteMeshIds";
+  public static final String WRITE_PARAMETER_TABLE = "WriteParameterTable";
+  public static final String WRITE_MATERIAL_TABLE = "WriteMaterialTable";
+  public static final String WRITE_FOOTPRINTS = "WriteFootprints";
+  public static final String FOOTPRINT_SLABS = "FootprintSlabs";
+  public static final String FOOTPRINT_TOLERANCE = "FootprintTolerance";
+  public static final String ECEF_POSITIONS = "EcefPositions";
+  public static final String COMPRESS_GEOMETRY = "CompressGeometry";
+  public static final String POSITION_BITS = "PositionBits";
+  public static final String INCLUDE_TYPES = "IncludeTypes";
+  public static final String EXCLUDE_TYPES = "ExcludeTypes";
+  public static final String INCLUDE_CONTAINERS = "IncludeContainers";
+  public static final String INCLUDE_GLOBAL_IDS = "IncludeGlobalIds";
+  public static final String EXCLUDE_GLOBAL_IDS = "ExcludeGlobalIds";
+  public static final String OUTPUT_BUFFER_SIZE = "OutputBufferSize";
+  public static final String FLUSH_INTERVAL = "FlushInterval";
+
+  private static final Splitter LIST_SPLITTER =
+      Splitter.on(',').trimResults().omitEmptyStrings();
+
+  private boolean weldVertices = false;
+  private boolean optimizeMeshes = false;
+  private boolean writeGeometry = true;
+  private boolean writeParameters = true;
+  private boolean writeGeometryIds = false;
+  private boolean writeMeshIds = false;
+  private boolean writeParameterTable = false;
+  private boolean writeMaterialTable = false;
+  private boolean writeFootprints = false;
+  private boolean footprintSlabs = false;
+  private double footprintTolerance = 0.01;
+  private boolean ecefPositions = false;
+  private boolean compressGeometry = false;
+  private int positionBits = MeshCodec.DEFAULT_POSITION_BITS;
+  private Set<String> includeTypes = Collections.emptySet();
+  private Set<String> excludeTypes = Collections.emptySet();
+  private Set<String> includeContainers = Collections.emptySet();
+  private Set<String> includeGlobalIds = Collections.emptySet();
+  private Set<String> excludeGlobalIds = Collections.emptySet();
+  private int outputBufferSize = 64 * 1024;
+  private long flushInterval = 1024 * 1024;
+
+  /**
+   * Creates the default settings.
+   */
+  public SerializerSettings() {
+  }
+
+  /**
+   * @param pluginConfiguration The configuration of the serializer plugin. Settings that are
+   *     missing keep their default values.
+   */
+  public SerializerSettings(PluginConfiguration pluginConfiguration) {
+    if (pluginConfiguration == null) {
+      return;
+    }
+    weldVertices = getBoolean(pluginConfiguration, WELD_VERTICES, weldVertices);
+    optimizeMeshes = getBoolean(pluginConfiguration, OPTIMIZE_MESHES, optimizeMeshes);
+    writeGeometry = getBoolean(pluginConfiguration, WRITE_GEOMETRY, writeGeometry);
+    writeParameters = getBoolean(pluginConfiguration, WRITE_PARAMETERS, writeParameters);
+    writeGeometryIds = getBoolean(pluginConfiguration, WRITE_GEOMETRY_IDS, writeGeometryIds);
+    writeMeshIds = getBoolean(pluginConfiguration, WRITE_MESH_IDS, writeMeshIds);
+    writeParameterTable =
+        getBoolean(pluginConfiguration, WRITE_PARAMETER_TABLE, writeParameterTable);
+    writeMaterialTable =
+        getBoolean(pluginConfiguration, WRITE_MATERIAL_TABLE, writeMaterialTable);
+    writeFootprints = getBoolean(pluginConfiguration, WRITE_FOOTPRINTS, writeFootprints);
+    footprintSlabs = getBoolean(pluginConfiguration, FOOTPRINT_SLABS, footprintSlabs);
+    footprintTolerance =
+        getDouble(pluginConfiguration, FOOTPRINT_TOLERANCE, footprintTolerance);
+    ecefPositions = getBoolean(pluginConfiguration, ECEF_POSITIONS, ecefPositions);
+    compressGeometry = getBoolean(pluginConfiguration, COMPRESS_GEOMETRY, compressGeometry);
+    positionBits = (int) getLong(pluginConfiguration, POSITION_BITS, positionBits);
+    includeTypes = getList(pluginConfiguration, INCLUDE_TYPES);
+    excludeTypes = getList(pluginConfiguration, EXCLUDE_TYPES);
+    includeContainers = getList(pluginConfiguration, INCLUDE_CONTAINERS);
+    includeGlobalIds = getList(pluginConfiguration, INCLUDE_GLOBAL_IDS);
+    excludeGlobalIds = getList(pluginConfiguration, EXCLUDE_GLOBAL_IDS);
+    outputBufferSize =
+        (int) getLong(pluginConfiguration, OUTPUT_BUFFER_SIZE, outputBufferSize);
+    flushInterval = getLong(pluginConfiguration, FLUSH_INTERVAL, flushInterval);
+  }
+
+  private static boolean getBoolean(PluginConfiguration pluginConfiguration, String name,
+      boolean defaultValue) {
+    Boolean value = pluginConfiguration.getBoolean(name);
+    return value == null ? defaultValue : value;
+  }
+
+  private static double getDouble(PluginConfiguration pluginConfiguration, String name,
+      double defaultValue) {
+    Double value = pluginConfiguration.getDouble(name);
+    return value == null ? defaultValue : value;
+  }
+
+  private static long getLong(PluginConfiguration pluginConfiguration, String name,
+      long defaultValue) {
+    Long value = pluginConfiguration.getLong(name);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * @return The comma separated values of the setting, or an empty set if it is missing.
+   */
+  private static Set<String> getList(PluginConfiguration pluginConfiguration, String name) {
+    return parseList(pluginConfiguration.getString(name));
+  }
+
+  /**
+   * @param value Comma separated values.
+   * @return The set of trimmed, non-empty values in their original order.
+   */
+  public static Set<String> parseList(String value) {
+    if (Strings.isNullOrEmpty(value)) {
+      return Collections.emptySet();
+    }
+    Set<String> values = new LinkedHashSet<>();
+    for (String item : LIST_SPLITTER.split(value)) {
+      values.add(item);
+    }
+    return values;
+  }
+
+  /**
+   * @return Whether duplicate vertices are welded before the geometry is written.
+   */
+  public boolean isWeldVertices() {
+    return weldVertices;
+  }
+
+  public void setWeldVertices(boolean weldVertices) {
+    this.weldVertices = weldVertices;
+  }
+
+  /**
+   * @return Whether triangles and vertices are reordered for vertex cache and fetch locality
+   * before the geometry is written.
+   */
+  public boolean isOptimizeMeshes() {
+    return optimizeMeshes;
+  }
+
+  public void setOptimizeMeshes(boolean optimizeMeshes) {
+    this.optimizeMeshes = optimizeMeshes;
+  }
+
+  /**
+   * @return Whether the geometry of products is written.
+   */
+  public boolean isWriteGeometry() {
+    return writeGeometry;
+  }
+
+  public void setWriteGeometry(boolean writeGeometry) {
+    this.writeGeometry = writeGeometry;
+  }
+
+  /**
+   * @return Whether the parameters of objects are written.
+   */
+  public boolean isWriteParameters() {
+    return writeParameters;
+  }
+
+  public void setWriteParameters(boolean writeParameters) {
+    this.writeParameters = writeParameters;
+  }
+
+  /**
+   * @return Whether products with a representation are written with a geometry id, which can be
+   * used to fetch their geometry with {@link JsonIfcGeometrySerializer}.
+   */
+  public boolean isWriteGeometryIds() {
+    return writeGeometryIds;
+  }
+
+  public void setWriteGeometryIds(boolean writeGeometryIds) {
+    this.writeGeometryIds = writeGeometryIds;
+  }
+
+  /**
+   * @return Whether a hash of the mesh content is written with the geometry, and with the geometry
+   *     id if those are written, so clients can cache meshes across revisions.
+   */
+  public boolean isWriteMeshIds() {
+    return writeMeshIds;
+  }
+
+  public void setWriteMeshIds(boolean writeMeshIds) {
+    this.writeMeshIds = writeMeshIds;
+  }
+
+  /**
+   * @return Whether parameters are written to a single column-oriented {@link ParameterTable}
+   * instead of a map in each object of the tree.
+   */
+  public boolean isWriteParameterTable() {
+    return writeParameterTable;
+  }
+
+  public void setWriteParameterTable(boolean writeParameterTable) {
+    this.writeParameterTable = writeParameterTable;
+  }
+
+  /**
+   * @return Whether all the materials of objects are written once to a shared table, which
+   *     objects refer to by index, instead of the name and thickness of their first material in
+   *     their parameters.
+   */
+  public boolean isWriteMaterialTable() {
+    return writeMaterialTable;
+  }
+
+  public void setWriteMaterialTable(boolean writeMaterialTable) {
+    this.writeMaterialTable = writeMaterialTable;
+  }
+
+  /**
+   * @return Whether the 2D footprint, area and height of spaces are written.
+   */
+  public boolean isWriteFootprints() {
+    return writeFootprints;
+  }
+
+  public void setWriteFootprints(boolean writeFootprints) {
+    this.writeFootprints = writeFootprints;
+  }
+
+  /**
+   * @return Whether footprints are written for slabs as well as spaces.
+   */
+  public boolean isFootprintSlabs() {
+    return footprintSlabs;
+  }
+
+  public void setFootprintSlabs(boolean footprintSlabs) {
+    this.footprintSlabs = footprintSlabs;
+  }
+
+  /**
+   * @return The distance tolerance in meters for simplifying footprints, or 0 to keep every
+   * vertex.
+   */
+  public double getFootprintTolerance() {
+    return footprintTolerance;
+  }
+
+  public void setFootprintTolerance(double footprintTolerance) {
+    this.footprintTolerance = footprintTolerance;
+  }
+
+  /**
+   * @return Whether geometry positions are written in earth-centered, earth-fixed coordinates,
+   *     georeferenced from the first site with a latitude and longitude, instead of in model
+   *     units with a placement matrix.
+   */
+  public boolean isEcefPositions() {
+    return ecefPositions;
+  }
+
+  public void setEcefPositions(boolean ecefPositions) {
+    this.ecefPositions = ecefPositions;
+  }
+
+  /**
+   * @return Whether geometry is written as a base64 {@link MeshCodec} encoding instead of arrays
+   *     of positions, normals and triangles.
+   */
+  public boolean isCompressGeometry() {
+    return compressGeometry;
+  }
+
+  public void setCompressGeometry(boolean compressGeometry) {
+    this.compressGeometry = compressGeometry;
+  }
+
+  /**
+   * @return The bits per quantized position component of compressed geometry, from 1 to
+   *     {@link MeshCodec#MAX_POSITION_BITS}.
+   */
+  public int getPositionBits() {
+    return positionBits;
+  }
+
+  public void setPositionBits(int positionBits) {
+    this.positionBits = positionBits;
+  }
+
+  /**
+   * @return The IFC classes to write, including their subtypes. Empty to write all classes.
+   */
+  public Set<String> getIncludeTypes() {
+    return includeTypes;
+  }
+
+  public void setIncludeTypes(Set<String> includeTypes) {
+    this.includeTypes = includeTypes;
+  }
+
+  /**
+   * @return The IFC classes to skip along with their subtrees, including their subtypes.
+   */
+  public Set<String> getExcludeTypes() {
+    return excludeTypes;
+  }
+
+  public void setExcludeTypes(Set<String> excludeTypes) {
+    this.excludeTypes = excludeTypes;
+  }
+
+  /**
+   * @return The GlobalIds or names of the spatial containers to write. Empty to write all
+   * containers.
+   */
+  public Set<String> getIncludeContainers() {
+    return includeContainers;
+  }
+
+  public void setIncludeContainers(Set<String> includeContainers) {
+    this.includeContainers = includeContainers;
+  }
+
+  /**
+   * @return The GlobalIds of the objects to write. Empty to write all objects.
+   */
+  public Set<String> getIncludeGlobalIds() {
+    return includeGlobalIds;
+  }
+
+  public void setIncludeGlobalIds(Set<String> includeGlobalIds) {
+    this.includeGlobalIds = includeGlobalIds;
+  }
+
+  /**
+   * @return The GlobalIds of the objects to skip along with their subtrees.
+   */
+  public Set<String> getExcludeGlobalIds() {
+    return excludeGlobalIds;
+  }
+
+  public void setExcludeGlobalIds(Set<String> excludeGlobalIds) {
+    this.excludeGlobalIds = excludeGlobalIds;
+  }
+
+  /**
+   * @return The size in bytes of the buffer the output is encoded into before it is written to
+   * the stream.
+   */
+  public int getOutputBufferSize() {
+    return outputBufferSize;
+  }
+
+  public void setOutputBufferSize(int outputBufferSize) {
+    this.outputBufferSize = outputBufferSize;
+  }
+
+  /**
+   * @return The number of bytes after which the output is flushed to the client, or 0 to flush
+   * only when the output is complete.
+   */
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+}
@@ -0,0 +1,97 @@
+package au.com.mutopia.plugin.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the recoverable oddities found while serializing a model, e.g. unsupported property
+ * values or products without styles, and logs them once as a summary instead of once per object.
+ * Large models can have thousands of them, and logging each one synchronously can take as long as
+ * the serialization itself.
+ * <p>
+ * Each category keeps its count and the first few distinct examples. Every occurrence is also
+ * logged at {@link Level#FINE}, but only built into a message if that level is enabled. Not
+ * thread safe; each serialization has its own.
+ */
+public class Diagnostics {
+  private static final Logger log = Logger.getLogger(Diagnostics.class.getName());
+
+  public static final int MAX_EXAMPLES = 3;
+
+  private final Map<String, Category> categories = new LinkedHashMap<>();
+
+  private static class Category {
+    private int count = 0;
+    private final List<String> examples = new ArrayList<>(MAX_EXAMPLES);
+  }
+
+  /**
+   * Counts an occurrence of the category.
+   *
+   * @param category A fixed description, e.g. "No material styles found".
+   * @param example The value or object it occurred for, converted to a string only if it is kept
+   *     as an example or logged.
+   */
+  public void record(String category, Object example) {
+    Category entry = categories.get(category);
+    if (entry == null) {
+      entry = new Category();
+      categories.put(category, entry);
+    }
+    entry.count++;
+    if (entry.examples.size() < MAX_EXAMPLES) {
+      String exampleString = String.valueOf(example);
+      if (!entry.examples.contains(exampleString)) {
+        entry.examples.add(exampleString);
+      }
+    }
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(category + ": " + example);
+    }
+  }
+
+  /**
+   * @param category
+   * @return The number of occurrences of the category.
+   */
+  public int getCount(String category) {
+    Category entry = categories.get(category);
+    return entry == null ? 0 : entry.count;
+  }
+
+  public boolean isEmpty() {
+    return categories.isEmpty();
+  }
+
+  public void clear() {
+    categories.clear();
+  }
+
+  /**
+   * Logs the count and examples of each category as a single {@link Level#INFO} message, if
+   * anything was recorded.
+   */
+  public void report() {
+    if (categories.isEmpty() || !log.isLoggable(Level.INFO)) {
+      return;
+    }
+    StringBuilder message = new StringBuilder("Serialization diagnostics:");
+    for (Map.Entry<String, Category> entry : categories.entrySet()) {
+      Category category = entry.getValue();
+      message.append("\n  ").append(entry.getKey()).append(": ").append(category.count);
+      message.append(" (e.g. ");
+      for (int i = 0; i < category.examples.size(); i++) {
+        if (i > 0) {
+          message.append(", ");
+        }
+        message.append(category.examples.get(i));
+      }
+      message.append(")");
+    }
+    log.info(message.toString());
+  }
+}
@@ -1,7 +1,6 @@
 package au.com.mutopia.plugin.util;
 
 import java.util.Map;
-import java.util.logging.Logger;
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.models.ifc2x3tc1.*;
@@ -12,7 +11,17 @@ import org.eclipse.emf.common.util.EList;
  * IFC util class that contains many common methods for accessing IFC objects.
  */
 public class IfcUtil {
-  private static final Logger log = Logger.getLogger(IfcUtil.class.getName());
+  public static final String UNKNOWN_VALUE = "Unknown IfcValue";
+  public static final String UNKNOWN_QUANTITY = "Unknown IfcPhysicalQuantity";
+
+  private final Diagnostics diagnostics;
+
+  /**
+   * @param diagnostics The {@link Diagnostics} to count unsupported values in.
+   */
+  public IfcUtil(Diagnostics diagnostics) {
+    this.diagnostics = diagnostics;
+  }
 
   /**
    * See http://www.buildingsmart-tech.org/ifc/IFC2x3/TC1/html/ifcmeasureresource/lexical/ifcvalue.htm
@@ -29,7 +38,7 @@ public class IfcUtil {
     } else if (ifcValue instanceof IfcDerivedMeasureValue) {
       return getWrappedValueFromIfcDerivedMeasureValue((IfcDerivedMeasureValue) ifcValue);
     } else {
-      log.info("Unknown IfcPropertySingleValue value : " + ifcValue.toString() + " " + ifcValue);
+      diagnostics.record(UNKNOWN_VALUE, ifcValue);
     }
     return null;
   }
@@ -64,7 +73,7 @@ public class IfcUtil {
       IfcLogical logical = (IfcLogical) simpleValue;
       return "" + logical.getWrappedValue();
     } else {
-      log.info("Unknown IfcSimpleValue value : " + simpleValue.toString());
+      diagnostics.record(UNKNOWN_VALUE, simpleValue);
     }
     return null;
   }
@@ -147,7 +156,7 @@ public class IfcUtil {
       IfcComplexNumber complexNumber = (IfcComplexNumber) measureValue;
       return "" + complexNumber.getWrappedValue();
     } else {
-      log.info("Unknown IfcMeasureValue value : " + measureValue.toString());
+      diagnostics.record(UNKNOWN_VALUE, measureValue);
     }
     return null;
   }
@@ -200,7 +209,7 @@ public class IfcUtil {
     } else if (derivedMeasureValue instanceof IfcSoundPressureMeasure) {
       return "" + ((IfcSoundPressureMeasure) derivedMeasureValue).getWrappedValue();
     } else {
-      log.info("Unknown IfcDerivedMeasureValue value : " + derivedMeasureValue.toString());
+      diagnostics.record(UNKNOWN_VALUE, derivedMeasureValue);
     }
     return null;
   }
@@ -226,8 +235,7 @@ public class IfcUtil {
     } else if (ifcPhysicalQuantity instanceof IfcQuantityTime) {
       return  ((IfcQuantityTime) ifcPhysicalQuantity).getTimeValueAsString();
     } else {
-      log.info("Unknown IfcPhysicalQuantity value : " + ifcPhysicalQuantity.getName() + " "
-          + ifcPhysicalQuantity);
+      diagnostics.record(UNKNOWN_QUANTITY, ifcPhysicalQuantity);
     }
     return null;
   }
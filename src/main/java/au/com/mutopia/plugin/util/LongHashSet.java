@@ -0,0 +1,113 @@
+package au.com.mutopia.plugin.util;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs backed by an open-addressing table, for tracking object ids without
+ * boxing them.
+ */
+public class LongHashSet {
+
+  private static final long EMPTY = 0;
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private long[] keys;
+  private int size = 0;
+  private boolean hasEmptyKey = false;
+  private int mask;
+  private int resizeThreshold;
+
+  public LongHashSet() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize The number of values the set is expected to hold without resizing.
+   */
+  public LongHashSet(int expectedSize) {
+    int capacity = 2;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    mask = capacity - 1;
+    resizeThreshold = capacity / 2;
+  }
+
+  /**
+   * @param value
+   * @return Whether the value was added, i.e. it was not already in the set.
+   */
+  public boolean add(long value) {
+    if (value == EMPTY) {
+      if (hasEmptyKey) {
+        return false;
+      }
+      hasEmptyKey = true;
+      size++;
+      return true;
+    }
+    int slot = slot(value);
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == value) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = value;
+    if (++size > resizeThreshold) {
+      resize();
+    }
+    return true;
+  }
+
+  public boolean contains(long value) {
+    if (value == EMPTY) {
+      return hasEmptyKey;
+    }
+    int slot = slot(value);
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == value) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    hasEmptyKey = false;
+    size = 0;
+  }
+
+  private int slot(long value) {
+    long hash = value * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private void resize() {
+    long[] oldKeys = keys;
+    allocate(oldKeys.length * 2);
+    for (long key : oldKeys) {
+      if (key == EMPTY) continue;
+      int slot = slot(key);
+      while (keys[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = key;
+    }
+  }
+}
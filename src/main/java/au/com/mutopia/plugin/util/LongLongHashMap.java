@@ -0,0 +1,140 @@
+package au.com.mutopia.plugin.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive longs to primitive longs backed by an open-addressing table, for indexing
+ * object ids without boxing them. The counterpart of {@link LongHashSet}.
+ */
+public class LongLongHashMap {
+
+  private static final long EMPTY = 0;
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private int size = 0;
+  private boolean hasEmptyKey = false;
+  private long emptyKeyValue;
+  private int mask;
+  private int resizeThreshold;
+
+  public LongLongHashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize The number of entries the map is expected to hold without resizing.
+   */
+  public LongLongHashMap(int expectedSize) {
+    int capacity = 2;
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    mask = capacity - 1;
+    resizeThreshold = capacity / 2;
+  }
+
+  /**
+   * Maps the key to the value, replacing any value it was mapped to.
+   *
+   * @param key
+   * @param value
+   */
+  public void put(long key, long value) {
+    if (key == EMPTY) {
+      if (!hasEmptyKey) {
+        hasEmptyKey = true;
+        size++;
+      }
+      emptyKeyValue = value;
+      return;
+    }
+    int slot = slot(key);
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        values[slot] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > resizeThreshold) {
+      resize();
+    }
+  }
+
+  /**
+   * @param key
+   * @param defaultValue
+   * @return The value the key is mapped to, or the default value if it isn't in the map.
+   */
+  public long get(long key, long defaultValue) {
+    if (key == EMPTY) {
+      return hasEmptyKey ? emptyKeyValue : defaultValue;
+    }
+    int slot = slot(key);
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return defaultValue;
+  }
+
+  public boolean containsKey(long key) {
+    if (key == EMPTY) {
+      return hasEmptyKey;
+    }
+    int slot = slot(key);
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == key) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    hasEmptyKey = false;
+    size = 0;
+  }
+
+  private int slot(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private void resize() {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(oldKeys.length * 2);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == EMPTY) continue;
+      int slot = slot(oldKeys[i]);
+      while (keys[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = oldKeys[i];
+      values[slot] = oldValues[i];
+    }
+  }
+}
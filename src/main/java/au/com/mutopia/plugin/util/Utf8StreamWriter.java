@@ -0,0 +1,179 @@
+package au.com.mutopia.plugin.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * {@link Writer} that encodes characters as UTF-8 straight into a reusable byte buffer, without a
+ * charset encoder or an intermediate char buffer. ASCII characters, which make up nearly all of
+ * the numbers and keys of the JSON output, are copied as single bytes; other characters are
+ * encoded inline.
+ * <p>
+ * The buffer is written to the {@link OutputStream} when it is full. The stream is also flushed
+ * every flush interval bytes, so clients start receiving a large document before it is complete.
+ * The writer can be pointed at a new stream with {@link #setOutputStream(OutputStream)} to reuse
+ * its buffer.
+ */
+public class Utf8StreamWriter extends Writer {
+
+  /**
+   * The most bytes a single char, or the pending surrogate pair it completes, encodes to.
+   */
+  private static final int MAX_BYTES_PER_CHAR = 4;
+
+  private final byte[] buffer;
+  private final long flushInterval;
+  private OutputStream out;
+  private int position = 0;
+  private long bytesWritten = 0;
+  private long bytesSinceFlush = 0;
+  /** A high surrogate whose low surrogate hasn't been written yet, or 0. */
+  private char highSurrogate = 0;
+
+  /**
+   * @param bufferSize The size of the byte buffer, at least {@value #MAX_BYTES_PER_CHAR}.
+   * @param flushInterval The number of bytes after which the buffer is written and the stream is
+   *     flushed, even if the buffer isn't full. 0 to flush the stream only on {@link #flush()}.
+   */
+  public Utf8StreamWriter(int bufferSize, long flushInterval) {
+    this.buffer = new byte[Math.max(bufferSize, MAX_BYTES_PER_CHAR)];
+    this.flushInterval = flushInterval;
+  }
+
+  /**
+   * Starts writing to the stream, discarding any state from the previous one.
+   *
+   * @param out
+   */
+  public void setOutputStream(OutputStream out) {
+    this.out = out;
+    position = 0;
+    bytesWritten = 0;
+    bytesSinceFlush = 0;
+    highSurrogate = 0;
+  }
+
+  /**
+   * @return The number of bytes written so far, including those still in the buffer.
+   */
+  public long getBytesWritten() {
+    return bytesWritten + position;
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    encode((char) c);
+    checkFlushInterval();
+  }
+
+  @Override
+  public void write(char[] chars, int offset, int length) throws IOException {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      char c = chars[i];
+      if (c < 0x80 && position < buffer.length && highSurrogate == 0) {
+        buffer[position++] = (byte) c;
+      } else {
+        encode(c);
+      }
+    }
+    checkFlushInterval();
+  }
+
+  @Override
+  public void write(String string, int offset, int length) throws IOException {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      char c = string.charAt(i);
+      if (c < 0x80 && position < buffer.length && highSurrogate == 0) {
+        buffer[position++] = (byte) c;
+      } else {
+        encode(c);
+      }
+    }
+    checkFlushInterval();
+  }
+
+  @Override
+  public void write(String string) throws IOException {
+    write(string, 0, string.length());
+  }
+
+  /**
+   * Encodes a single char, making room in the buffer first if needed.
+   */
+  private void encode(char c) throws IOException {
+    if (position + MAX_BYTES_PER_CHAR > buffer.length) {
+      drain();
+    }
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int codePoint = Character.toCodePoint(high, c);
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        return;
+      }
+      // An unpaired high surrogate can't be encoded.
+      buffer[position++] = '?';
+      encode(c);
+      return;
+    }
+    if (c < 0x80) {
+      buffer[position++] = (byte) c;
+    } else if (c < 0x800) {
+      buffer[position++] = (byte) (0xC0 | (c >> 6));
+      buffer[position++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      buffer[position++] = '?';
+    } else {
+      buffer[position++] = (byte) (0xE0 | (c >> 12));
+      buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      buffer[position++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  private void checkFlushInterval() throws IOException {
+    if (flushInterval > 0 && bytesSinceFlush + position >= flushInterval) {
+      drain();
+      out.flush();
+      bytesSinceFlush = 0;
+    }
+  }
+
+  /**
+   * Writes the buffered bytes to the stream.
+   */
+  private void drain() throws IOException {
+    if (position == 0) {
+      return;
+    }
+    out.write(buffer, 0, position);
+    bytesWritten += position;
+    bytesSinceFlush += position;
+    position = 0;
+  }
+
+  /**
+   * Writes the buffered bytes and flushes the stream. A pending high surrogate is kept until its
+   * low surrogate is written.
+   */
+  @Override
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+    bytesSinceFlush = 0;
+  }
+
+  /**
+   * Flushes the writer. The stream is left open, as it belongs to the caller.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+}
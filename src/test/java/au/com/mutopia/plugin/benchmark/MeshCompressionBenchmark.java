@@ -0,0 +1,155 @@
+package au.com.mutopia.plugin.benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.plugins.serializers.SerializerException;
+
+import au.com.mutopia.plugin.geometry.Mesh;
+import au.com.mutopia.plugin.geometry.MeshCodec;
+import au.com.mutopia.plugin.geometry.MeshOptimizer;
+import au.com.mutopia.plugin.geometry.MeshWelder;
+import au.com.mutopia.plugin.schema.SchemaAdapter;
+import au.com.mutopia.plugin.schema.SchemaAdapters;
+import au.com.mutopia.plugin.util.Diagnostics;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Compares the size, encode and decode throughput and precision of {@link MeshCodec} against the
+ * JSON arrays the serializers write and the raw float32 and int32 buffers, for the welded and
+ * optimized meshes of a {@link ModelFixture} model.
+ * <p>
+ * Run with {@code java -cp <classpath> au.com.mutopia.plugin.benchmark.MeshCompressionBenchmark
+ * [storeys] [elementsPerStorey] [iterations]}.
+ */
+public class MeshCompressionBenchmark {
+
+  private static final int[] POSITION_BITS = {12, 16, 20};
+
+  public static void main(String[] args) throws IOException, SerializerException {
+    int storeys = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int elementsPerStorey = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    List<Mesh> meshes = readMeshes(ModelFixture.create(storeys, elementsPerStorey));
+    int vertexCount = 0;
+    int triangleCount = 0;
+    long rawBytes = 0;
+    for (Mesh mesh : meshes) {
+      vertexCount += mesh.getVertexCount();
+      triangleCount += mesh.getTriangleCount();
+      rawBytes += (mesh.getPositions().length + mesh.getNormals().length) * 4L
+          + mesh.getIndices().length * (mesh.canUseShortIndices() ? 2L : 4L);
+    }
+    System.out.println(String.format("%d meshes, %d vertices, %d triangles", meshes.size(),
+        vertexCount, triangleCount));
+    System.out.println(String.format("  Raw binary %d bytes", rawBytes));
+    System.out.println(String.format("  JSON %d bytes", jsonSize(meshes)));
+
+    for (int positionBits : POSITION_BITS) {
+      run(meshes, positionBits, false, rawBytes, iterations);
+      run(meshes, positionBits, true, rawBytes, iterations);
+    }
+  }
+
+  /**
+   * Reads the meshes of the model's products, welded and optimized as the serializers do.
+   */
+  private static List<Mesh> readMeshes(IfcModelInterface model) throws SerializerException {
+    SchemaAdapter schemaAdapter = SchemaAdapters.forModel(model, new Diagnostics());
+    List<Mesh> meshes = new ArrayList<>();
+    for (IdEObject product : schemaAdapter.getProducts()) {
+      if (schemaAdapter.hasGeometry(product)) {
+        meshes.add(MeshOptimizer.optimize(MeshWelder.weld(schemaAdapter.getMesh(product))));
+      }
+    }
+    return meshes;
+  }
+
+  private static long jsonSize(List<Mesh> meshes) throws IOException {
+    StringWriter out = new StringWriter();
+    JsonWriter writer = new JsonWriter(out);
+    writer.beginArray();
+    for (Mesh mesh : meshes) {
+      writer.beginObject();
+      writer.name("positions").beginArray();
+      for (float value : mesh.getPositions()) {
+        writer.value(value);
+      }
+      writer.endArray();
+      writer.name("normals").beginArray();
+      for (float value : mesh.getNormals()) {
+        writer.value(value);
+      }
+      writer.endArray();
+      writer.name("triangles").beginArray();
+      for (int value : mesh.getIndices()) {
+        writer.value(value);
+      }
+      writer.endArray();
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.close();
+    return out.toString().length();
+  }
+
+  private static void run(List<Mesh> meshes, int positionBits, boolean deflate, long rawBytes,
+      int iterations) {
+    List<byte[]> encoded = new ArrayList<>();
+    long encodedBytes = 0;
+    for (Mesh mesh : meshes) {
+      byte[] bytes = MeshCodec.encode(mesh, positionBits, MeshCodec.DEFAULT_NORMAL_BITS, deflate);
+      encoded.add(bytes);
+      encodedBytes += bytes.length;
+    }
+    double maxError = 0;
+    for (int i = 0; i < meshes.size(); i++) {
+      float[] positions = meshes.get(i).getPositions();
+      double[] decoded = MeshCodec.decode(encoded.get(i)).getPositions();
+      for (int j = 0; j < positions.length; j++) {
+        maxError = Math.max(maxError, Math.abs(decoded[j] - positions[j]));
+      }
+    }
+
+    // Warm up before timing.
+    for (int i = 0; i < iterations; i++) {
+      encodeAll(meshes, positionBits, deflate);
+      decodeAll(encoded);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      encodeAll(meshes, positionBits, deflate);
+    }
+    double encodeSeconds = (System.nanoTime() - start) / 1e9 / iterations;
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      decodeAll(encoded);
+    }
+    double decodeSeconds = (System.nanoTime() - start) / 1e9 / iterations;
+
+    System.out.println(String.format("%d position bits%s:", positionBits,
+        deflate ? ", deflated" : ""));
+    System.out.println(String.format("  %d bytes, %.1f%% of raw binary, max position error %.2g",
+        encodedBytes, 100.0 * encodedBytes / rawBytes, maxError));
+    System.out.println(String.format("  Encode %.1f MB/s, decode %.1f MB/s of raw binary",
+        rawBytes / encodeSeconds / 1e6, rawBytes / decodeSeconds / 1e6));
+  }
+
+  private static void encodeAll(List<Mesh> meshes, int positionBits, boolean deflate) {
+    for (Mesh mesh : meshes) {
+      MeshCodec.encode(mesh, positionBits, MeshCodec.DEFAULT_NORMAL_BITS, deflate);
+    }
+  }
+
+  private static void decodeAll(List<byte[]> encoded) {
+    for (byte[] bytes : encoded) {
+      MeshCodec.decode(bytes);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package au.com.mutopia.plugin.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import au.com.mutopia.plugin.geometry.Mesh;
+import au.com.mutopia.plugin.geometry.MeshOptimizer;
+import au.com.mutopia.plugin.geometry.MeshWelder;
+
+/**
+ * Reports the average cache miss ratio (ACMR), deflated index size and time taken by
+ * {@link MeshOptimizer} for synthetic meshes laid out the way BIMserver stores them, with three
+ * unshared vertices per triangle.
+ * <p>
+ * Run with {@code java -cp <classpath> au.com.mutopia.plugin.benchmark.MeshOptimizationBenchmark
+ * [gridSize] [iterations]}.
+ */
+public class MeshOptimizationBenchmark {
+
+  public static void main(String[] args) {
+    int gridSize = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    run("Grid, triangles in row order", createGrid(gridSize, false), iterations);
+    run("Grid, triangles shuffled", createGrid(gridSize, true), iterations);
+  }
+
+  private static void run(String name, Mesh mesh, int iterations) {
+    Mesh welded = MeshWelder.weld(mesh);
+    Mesh optimized = MeshOptimizer.optimize(welded);
+    // Warm up before timing.
+    for (int i = 0; i < iterations; i++) {
+      MeshOptimizer.optimize(welded);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      MeshOptimizer.optimize(welded);
+    }
+    double millis = (System.nanoTime() - start) / 1e6 / iterations;
+
+    System.out.println(name + ": " + welded.getTriangleCount() + " triangles, "
+        + welded.getVertexCount() + " vertices");
+    System.out.println(String.format("  ACMR unwelded %.3f, welded %.3f, optimized %.3f",
+        MeshOptimizer.calculateAcmr(mesh.getIndices(), mesh.getVertexCount()),
+        MeshOptimizer.calculateAcmr(welded.getIndices(), welded.getVertexCount()),
+        MeshOptimizer.calculateAcmr(optimized.getIndices(), optimized.getVertexCount())));
+    System.out.println(String.format("  Deflated index bytes welded %d, optimized %d",
+        deflatedSize(welded.getIndices()), deflatedSize(optimized.getIndices())));
+    System.out.println(String.format("  Optimize time %.2f ms", millis));
+  }
+
+  /**
+   * Creates a square grid with three unshared vertices per triangle.
+   */
+  private static Mesh createGrid(int gridSize, boolean shuffle) {
+    int triangleCount = gridSize * gridSize * 2;
+    int[] cells = new int[gridSize * gridSize];
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] = i;
+    }
+    if (shuffle) {
+      Random random = new Random(42);
+      for (int i = cells.length - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int swap = cells[i];
+        cells[i] = cells[j];
+        cells[j] = swap;
+      }
+    }
+    float[] positions = new float[triangleCount * 9];
+    float[] normals = new float[triangleCount * 9];
+    int[] indices = new int[triangleCount * 3];
+    int vertex = 0;
+    for (int cell : cells) {
+      int x = cell % gridSize;
+      int y = cell / gridSize;
+      int[][] corners = {{x, y}, {x + 1, y}, {x + 1, y + 1}, {x, y}, {x + 1, y + 1}, {x, y + 1}};
+      for (int[] corner : corners) {
+        positions[vertex * 3] = corner[0];
+        positions[vertex * 3 + 1] = corner[1];
+        normals[vertex * 3 + 2] = 1;
+        indices[vertex] = vertex;
+        vertex++;
+      }
+    }
+    return new Mesh(positions, normals, indices);
+  }
+
+  private static int deflatedSize(int[] indices) {
+    ByteBuffer buffer = ByteBuffer.allocate(indices.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.asIntBuffer().put(indices);
+    Deflater deflater = new Deflater();
+    deflater.setInput(buffer.array());
+    deflater.finish();
+    byte[] output = new byte[buffer.capacity() + 64];
+    int size = 0;
+    while (!deflater.finished()) {
+      size += deflater.deflate(output);
+    }
+    deflater.end();
+    return size;
+  }
+}
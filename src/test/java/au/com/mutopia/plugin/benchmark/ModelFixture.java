@@ -0,0 +1,199 @@
+package au.com.mutopia.plugin.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.IfcModelInterfaceException;
+import org.bimserver.ifc.IfcModel;
+import org.bimserver.models.ifc2x3tc1.GeometryData;
+import org.bimserver.models.ifc2x3tc1.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Factory;
+import org.bimserver.models.ifc2x3tc1.IfcBuilding;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingStorey;
+import org.bimserver.models.ifc2x3tc1.IfcLabel;
+import org.bimserver.models.ifc2x3tc1.IfcMaterial;
+import org.bimserver.models.ifc2x3tc1.IfcObjectDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcProject;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcRelAggregates;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesMaterial;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.bimserver.models.ifc2x3tc1.IfcSite;
+import org.bimserver.models.ifc2x3tc1.IfcSpace;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+
+/**
+ * Builds synthetic in-memory {@link IfcModelInterface}s shaped like the models BIMserver hands to
+ * a serializer, so serializers can be exercised without a running BIMserver.
+ * <p>
+ * Each model has a project, site and building with a number of storeys. Each storey contains
+ * walls and aggregates spaces, all with box geometry stored the way BIMserver stores it, with
+ * three unshared vertices per triangle. The walls of a storey share a property set and material.
+ */
+public class ModelFixture {
+
+  private static final Ifc2x3tc1Factory factory = Ifc2x3tc1Factory.eINSTANCE;
+
+  private final IfcModel model = new IfcModel();
+  private long nextOid = 1;
+
+  private ModelFixture() {
+  }
+
+  /**
+   * @param storeys The number of storeys in the building.
+   * @param elementsPerStorey The number of walls in each storey. Each storey also has a space for
+   *     every ten walls.
+   * @return A new model with geometry for every wall and space.
+   */
+  public static IfcModelInterface create(int storeys, int elementsPerStorey) {
+    try {
+      return new ModelFixture().build(storeys, elementsPerStorey);
+    } catch (IfcModelInterfaceException e) {
+      throw new IllegalStateException("Failed to build model fixture", e);
+    }
+  }
+
+  private IfcModelInterface build(int storeys, int elementsPerStorey)
+      throws IfcModelInterfaceException {
+    IfcProject project = add(factory.createIfcProject(), "Project");
+    IfcSite site = add(factory.createIfcSite(), "Site");
+    site.getRefLatitude().add(-37);
+    site.getRefLatitude().add(48);
+    site.getRefLatitude().add(49);
+    site.getRefLongitude().add(144);
+    site.getRefLongitude().add(57);
+    site.getRefLongitude().add(47);
+    IfcBuilding building = add(factory.createIfcBuilding(), "Building");
+    aggregate(project, site);
+    aggregate(site, building);
+
+    for (int s = 0; s < storeys; s++) {
+      IfcBuildingStorey storey = add(factory.createIfcBuildingStorey(), "Level " + s);
+      aggregate(building, storey);
+      float elevation = s * 3.0f;
+
+      IfcRelContainedInSpatialStructure contained =
+          add(factory.createIfcRelContainedInSpatialStructure(), null);
+      contained.setRelatingStructure(storey);
+      IfcRelDefinesByProperties definesByProperties =
+          add(factory.createIfcRelDefinesByProperties(), null);
+      definesByProperties.setRelatingPropertyDefinition(createPropertySet("Level " + s));
+      IfcRelAssociatesMaterial associatesMaterial =
+          add(factory.createIfcRelAssociatesMaterial(), null);
+      IfcMaterial material = add(factory.createIfcMaterial(), null);
+      material.setName("Concrete");
+      associatesMaterial.setRelatingMaterial(material);
+
+      for (int e = 0; e < elementsPerStorey; e++) {
+        IfcWall wall = add(factory.createIfcWall(), "Wall " + s + "-" + e);
+        setBoxGeometry(wall, e * 1.0f, 0, elevation, 0.9f, 0.2f, 3.0f);
+        contained.getRelatedElements().add(wall);
+        definesByProperties.getRelatedObjects().add(wall);
+        associatesMaterial.getRelatedObjects().add(wall);
+        if (e % 10 == 0) {
+          IfcSpace space = add(factory.createIfcSpace(), "Room " + s + "-" + e / 10);
+          setBoxGeometry(space, e * 1.0f, 0.2f, elevation, 10.0f, 5.0f, 3.0f);
+          aggregate(storey, space);
+        }
+      }
+    }
+    model.indexGuids();
+    return model;
+  }
+
+  private <T extends IdEObject> T add(T object, String name) throws IfcModelInterfaceException {
+    long oid = nextOid++;
+    ((IdEObjectImpl) object).setOid(oid);
+    model.add(oid, object);
+    if (name != null && object instanceof IfcRoot) {
+      IfcRoot root = (IfcRoot) object;
+      root.setGlobalId(String.format("%022d", oid));
+      root.setName(name);
+    }
+    return object;
+  }
+
+  private void aggregate(IfcObjectDefinition parent, IfcObjectDefinition child)
+      throws IfcModelInterfaceException {
+    IfcRelAggregates aggregates = add(factory.createIfcRelAggregates(), null);
+    aggregates.setRelatingObject(parent);
+    aggregates.getRelatedObjects().add(child);
+  }
+
+  private IfcPropertySet createPropertySet(String level) throws IfcModelInterfaceException {
+    IfcPropertySet propertySet = add(factory.createIfcPropertySet(), null);
+    propertySet.setName("Pset_WallCommon");
+    String[][] values = {{"FireRating", "2HR"}, {"Reference", "Standard"}, {"Level", level}};
+    for (String[] value : values) {
+      IfcPropertySingleValue property = add(factory.createIfcPropertySingleValue(), null);
+      property.setName(value[0]);
+      IfcLabel label = add(factory.createIfcLabel(), null);
+      label.setWrappedValue(value[1]);
+      property.setNominalValue(label);
+      propertySet.getHasProperties().add(property);
+    }
+    return propertySet;
+  }
+
+  /**
+   * Gives the product an axis-aligned box with its minimum corner at the given position.
+   */
+  private void setBoxGeometry(IfcProduct product, float x, float y, float z, float width,
+      float depth, float height) throws IfcModelInterfaceException {
+    float[][] corners = new float[8][];
+    for (int i = 0; i < 8; i++) {
+      corners[i] = new float[] {
+          (i & 1) == 0 ? 0 : width, (i & 2) == 0 ? 0 : depth, (i & 4) == 0 ? 0 : height};
+    }
+    // Two counter-clockwise triangles per face, viewed from outside the box.
+    int[][] faces = {{0, 2, 3, 1}, {4, 5, 7, 6}, {0, 1, 5, 4}, {2, 6, 7, 3}, {0, 4, 6, 2},
+        {1, 3, 7, 5}};
+    ByteBuffer vertices = allocate(faces.length * 6 * 3);
+    ByteBuffer normals = allocate(faces.length * 6 * 3);
+    ByteBuffer indices = allocate(faces.length * 6);
+    int index = 0;
+    for (int[] face : faces) {
+      float[] normal = normal(corners[face[0]], corners[face[1]], corners[face[2]]);
+      for (int corner : new int[] {face[0], face[1], face[2], face[0], face[2], face[3]}) {
+        vertices.putFloat(corners[corner][0]).putFloat(corners[corner][1])
+            .putFloat(corners[corner][2]);
+        normals.putFloat(normal[0]).putFloat(normal[1]).putFloat(normal[2]);
+        indices.putInt(index++);
+      }
+    }
+    ByteBuffer transformation = allocate(16);
+    float[] matrix = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, x, y, z, 1};
+    for (float value : matrix) {
+      transformation.putFloat(value);
+    }
+
+    GeometryData data = add(factory.createGeometryData(), null);
+    data.setVertices(vertices.array());
+    data.setNormals(normals.array());
+    data.setIndices(indices.array());
+    GeometryInfo info = add(factory.createGeometryInfo(), null);
+    info.setData(data);
+    info.setTransformation(transformation.array());
+    product.setGeometry(info);
+  }
+
+  private static ByteBuffer allocate(int count) {
+    return ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static float[] normal(float[] a, float[] b, float[] c) {
+    float ux = b[0] - a[0], uy = b[1] - a[1], uz = b[2] - a[2];
+    float vx = c[0] - a[0], vy = c[1] - a[1], vz = c[2] - a[2];
+    float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+    float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+    return new float[] {nx / length, ny / length, nz / length};
+  }
+}
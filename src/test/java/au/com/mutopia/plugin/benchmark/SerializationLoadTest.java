@@ -0,0 +1,380 @@
+package au.com.mutopia.plugin.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.plugins.serializers.SerializerException;
+
+import au.com.mutopia.plugin.serializer.JsonIfcGeometryTreeSerializer;
+import au.com.mutopia.plugin.serializer.SerializerSettings;
+
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Drives {@link JsonIfcGeometryTreeSerializer}s in parallel against in-memory {@link ModelFixture}
+ * models, the way simultaneous downloads do on a BIMserver, and reports throughput, latency
+ * percentiles, allocation rate and GC pauses. Each worker thread serializes its own model, since
+ * BIMserver gives every download its own model and serializer. The workers take turns through
+ * several {@link SerializerSettings}, from the defaults to welded, optimized and compressed
+ * geometry with tables and footprints, so the optional stages run concurrently too.
+ * <p>
+ * Every output is parsed, and a serialization counts as failed if it throws, isn't valid JSON or
+ * has an "errors" section, i.e. some objects couldn't be written.
+ * <p>
+ * Run with {@code java -cp <classpath> au.com.mutopia.plugin.benchmark.SerializationLoadTest
+ * [threads] [serializationsPerThread] [storeys] [elementsPerStorey] [maxP99Millis]
+ * [minThroughput]}. The process exits with status 1 if any serialization fails, or if a maximum
+ * p99 latency in milliseconds or a minimum throughput in serializations per second is given and
+ * isn't met, so the test can gate builds.
+ * <p>
+ * Allocation rate and GC pauses are read from the HotSpot management extensions.
+ */
+public class SerializationLoadTest {
+
+  private static final Logger log = Logger.getLogger(SerializationLoadTest.class.getName());
+  private static final int WARM_UP_SERIALIZATIONS = 3;
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0])
+        : Runtime.getRuntime().availableProcessors();
+    int serializationsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int storeys = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int elementsPerStorey = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    double maxP99Millis = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+    double minThroughput = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+
+    // Per-object log messages would dominate the timings.
+    Logger.getLogger("au.com.mutopia.plugin").setLevel(Level.WARNING);
+
+    System.out.println(String.format("%d threads, %d serializations each, %d storeys of %d walls",
+        threads, serializationsPerThread, storeys, elementsPerStorey));
+    List<IfcModelInterface> models = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      models.add(ModelFixture.create(storeys, elementsPerStorey));
+    }
+    List<SerializerSettings> settings = createSettings();
+
+    GcMonitor gcMonitor = new GcMonitor();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      // Warm up before measuring, so the JIT compiled code is timed.
+      warmUp(executor, models, settings);
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<WorkerResult>> futures = new ArrayList<>();
+      for (int i = 0; i < models.size(); i++) {
+        futures.add(executor.submit(new Worker(models.get(i), settings, i,
+            serializationsPerThread, start)));
+      }
+      gcMonitor.start();
+      long startTime = System.nanoTime();
+      start.countDown();
+      List<WorkerResult> results = new ArrayList<>();
+      for (Future<WorkerResult> future : futures) {
+        results.add(future.get());
+      }
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      gcMonitor.stop();
+
+      boolean passed = report(results, seconds, gcMonitor, maxP99Millis, minThroughput);
+      if (!passed) {
+        System.exit(1);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * @return The settings the workers take turns through: the defaults, and the optional stages
+   *     enabled in two groups.
+   */
+  private static List<SerializerSettings> createSettings() {
+    SerializerSettings optimized = new SerializerSettings();
+    optimized.setWeldVertices(true);
+    optimized.setOptimizeMeshes(true);
+    optimized.setWriteMeshIds(true);
+    optimized.setWriteParameterTable(true);
+    optimized.setWriteMaterialTable(true);
+
+    SerializerSettings compressed = new SerializerSettings();
+    compressed.setWeldVertices(true);
+    compressed.setOptimizeMeshes(true);
+    compressed.setCompressGeometry(true);
+    compressed.setWriteFootprints(true);
+    compressed.setFootprintSlabs(true);
+
+    return Arrays.asList(new SerializerSettings(), optimized, compressed);
+  }
+
+  private static void warmUp(ExecutorService executor, List<IfcModelInterface> models,
+      List<SerializerSettings> settings) throws Exception {
+    List<Future<WorkerResult>> futures = new ArrayList<>();
+    for (int i = 0; i < models.size(); i++) {
+      futures.add(executor.submit(new Worker(models.get(i), settings, i,
+          WARM_UP_SERIALIZATIONS * settings.size(), null)));
+    }
+    for (Future<WorkerResult> future : futures) {
+      future.get();
+    }
+  }
+
+  /**
+   * Prints the results and checks them against the thresholds.
+   *
+   * @return Whether the thresholds were met.
+   */
+  private static boolean report(List<WorkerResult> results, double seconds, GcMonitor gcMonitor,
+      double maxP99Millis, double minThroughput) {
+    int count = 0;
+    int failures = 0;
+    long bytes = 0;
+    long allocatedBytes = 0;
+    for (WorkerResult result : results) {
+      count += result.latencies.length;
+      failures += result.failures;
+      bytes += result.bytes;
+      allocatedBytes += result.allocatedBytes;
+    }
+    long[] latencies = new long[count];
+    int offset = 0;
+    for (WorkerResult result : results) {
+      System.arraycopy(result.latencies, 0, latencies, offset, result.latencies.length);
+      offset += result.latencies.length;
+    }
+    Arrays.sort(latencies);
+    double throughput = count / seconds;
+    double p50Millis = percentile(latencies, 0.5) / 1e6;
+    double p99Millis = percentile(latencies, 0.99) / 1e6;
+
+    System.out.println(String.format("  Throughput %.1f serializations/s, %.1f MB/s",
+        throughput, bytes / seconds / 1e6));
+    System.out.println(String.format("  Latency p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+        p50Millis, p99Millis, latencies[count - 1] / 1e6));
+    if (allocatedBytes >= 0) {
+      System.out.println(String.format("  Allocated %.1f MB/s, %.1f MB per serialization",
+          allocatedBytes / seconds / 1e6, allocatedBytes / 1e6 / count));
+    } else {
+      System.out.println("  Allocation rate not supported by this JVM");
+    }
+    System.out.println(String.format("  GC %d pauses, total %d ms, max %d ms",
+        gcMonitor.getPauseCount(), gcMonitor.getTotalPauseMillis(),
+        gcMonitor.getMaxPauseMillis()));
+    System.out.println(String.format("  Output %.1f KB per serialization, %d failed",
+        bytes / 1e3 / count, failures));
+
+    boolean passed = failures == 0;
+    if (!passed) {
+      System.out.println(String.format("FAILED: %d serializations failed", failures));
+    }
+    if (maxP99Millis > 0 && p99Millis > maxP99Millis) {
+      System.out.println(String.format("FAILED: p99 latency %.1f ms exceeds %.1f ms", p99Millis,
+          maxP99Millis));
+      passed = false;
+    }
+    if (minThroughput > 0 && throughput < minThroughput) {
+      System.out.println(String.format("FAILED: throughput %.1f/s is below %.1f/s", throughput,
+          minThroughput));
+      passed = false;
+    }
+    return passed;
+  }
+
+  /**
+   * @return The nearest-rank percentile of the sorted values.
+   */
+  private static long percentile(long[] sortedValues, double percentile) {
+    int rank = (int) Math.ceil(percentile * sortedValues.length);
+    return sortedValues[Math.max(0, rank - 1)];
+  }
+
+  /**
+   * Serializes a model a number of times with a new serializer each time, once the start latch is
+   * released, taking turns through the settings starting from its offset.
+   */
+  private static class Worker implements Callable<WorkerResult> {
+    private final IfcModelInterface model;
+    private final List<SerializerSettings> settings;
+    private final int offset;
+    private final int count;
+    private final CountDownLatch start;
+
+    public Worker(IfcModelInterface model, List<SerializerSettings> settings, int offset,
+        int count, CountDownLatch start) {
+      this.model = model;
+      this.settings = settings;
+      this.offset = offset;
+      this.count = count;
+      this.start = start;
+    }
+
+    @Override
+    public WorkerResult call() throws Exception {
+      if (start != null) {
+        start.await();
+      }
+      ThreadMXBean threadBean = getThreadBean();
+      long threadId = Thread.currentThread().getId();
+      WorkerResult result = new WorkerResult(count);
+      result.allocatedBytes = threadBean == null ? -1 : 0;
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (int i = 0; i < count; i++) {
+        out.reset();
+        SerializerSettings serializerSettings = settings.get((offset + i) % settings.size());
+        long allocatedBefore = threadBean == null ? 0
+            : threadBean.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        boolean serialized = serialize(model, serializerSettings, out);
+        result.latencies[i] = System.nanoTime() - startTime;
+        if (threadBean != null) {
+          result.allocatedBytes += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        result.bytes += out.size();
+        if (!serialized || !isValid(out.toByteArray())) {
+          result.failures++;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return Whether the serializer finished without throwing.
+     */
+    private static boolean serialize(IfcModelInterface model, SerializerSettings settings,
+        ByteArrayOutputStream out) {
+      try {
+        JsonIfcGeometryTreeSerializer serializer = new JsonIfcGeometryTreeSerializer(settings);
+        serializer.init(model, null, null, null, false);
+        serializer.writeToOutputStream(out);
+        return true;
+      } catch (SerializerException | RuntimeException e) {
+        log.log(Level.WARNING, "Serialization failed", e);
+        return false;
+      }
+    }
+
+    /**
+     * @return Whether the output is a single well-formed JSON object without an "errors" or
+     *     "errorsOmitted" section.
+     */
+    private static boolean isValid(byte[] output) {
+      JsonReader reader = new JsonReader(
+          new InputStreamReader(new ByteArrayInputStream(output), Charsets.UTF_8));
+      reader.setLenient(false);
+      try {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if (name.equals("errors") || name.equals("errorsOmitted")) {
+            return false;
+          }
+          reader.skipValue();
+        }
+        reader.endObject();
+        return reader.peek() == JsonToken.END_DOCUMENT;
+      } catch (IOException | IllegalStateException e) {
+        log.log(Level.WARNING, "Serialization output is not valid JSON", e);
+        return false;
+      }
+    }
+
+    private static ThreadMXBean getThreadBean() {
+      java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+      if (!(threadBean instanceof ThreadMXBean)) {
+        return null;
+      }
+      ThreadMXBean hotSpotThreadBean = (ThreadMXBean) threadBean;
+      if (!hotSpotThreadBean.isThreadAllocatedMemorySupported()) {
+        return null;
+      }
+      hotSpotThreadBean.setThreadAllocatedMemoryEnabled(true);
+      return hotSpotThreadBean;
+    }
+  }
+
+  private static class WorkerResult {
+    private final long[] latencies;
+    private long bytes = 0;
+    private long allocatedBytes = 0;
+    private int failures = 0;
+
+    public WorkerResult(int count) {
+      latencies = new long[count];
+    }
+  }
+
+  /**
+   * Records the duration of each garbage collection while started.
+   */
+  private static class GcMonitor implements NotificationListener {
+    private boolean started = false;
+    private int pauseCount = 0;
+    private long totalPauseMillis = 0;
+    private long maxPauseMillis = 0;
+
+    public GcMonitor() {
+      for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+        if (gcBean instanceof NotificationEmitter) {
+          ((NotificationEmitter) gcBean).addNotificationListener(this, null, null);
+        }
+      }
+    }
+
+    public synchronized void start() {
+      started = true;
+    }
+
+    public synchronized void stop() {
+      started = false;
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+      if (!started || !notification.getType().equals(
+          GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+        return;
+      }
+      GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+          (CompositeData) notification.getUserData());
+      long duration = info.getGcInfo().getDuration();
+      pauseCount++;
+      totalPauseMillis += duration;
+      maxPauseMillis = Math.max(maxPauseMillis, duration);
+    }
+
+    public synchronized int getPauseCount() {
+      return pauseCount;
+    }
+
+    public synchronized long getTotalPauseMillis() {
+      return totalPauseMillis;
+    }
+
+    public synchronized long getMaxPauseMillis() {
+      return maxPauseMillis;
+    }
+  }
+}
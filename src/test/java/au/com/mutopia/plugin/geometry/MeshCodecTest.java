@@ -0,0 +1,296 @@
+package au.com.mutopia.plugin.geometry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.com.mutopia.plugin.geometry.MeshCodec.DecodedMesh;
+
+/**
+ * Round trips meshes through {@link MeshCodec} and checks the decoded values against the bounds
+ * the encoding documents.
+ */
+public class MeshCodecTest {
+
+  private static final int[] POSITION_BITS = {1, 8, MeshCodec.DEFAULT_POSITION_BITS, 20,
+      MeshCodec.MAX_POSITION_BITS};
+  private static final int[] NORMAL_BITS = {4, MeshCodec.DEFAULT_NORMAL_BITS,
+      MeshCodec.MAX_NORMAL_BITS};
+
+  @Test
+  public void roundTripsFloatPositions() {
+    Mesh mesh = createMesh(new Random(1), 500, 100);
+    for (int positionBits : POSITION_BITS) {
+      for (boolean deflate : new boolean[] {false, true}) {
+        DecodedMesh decoded = MeshCodec.decode(MeshCodec.encode(mesh, positionBits,
+            MeshCodec.DEFAULT_NORMAL_BITS, deflate));
+        assertPositions(toDoubles(mesh.getPositions()), decoded.getPositions(), positionBits);
+        assertArrayEquals(mesh.getIndices(), decoded.getIndices());
+      }
+    }
+  }
+
+  @Test
+  public void roundTripsDoublePositions() {
+    Mesh mesh = createMesh(new Random(2), 500, 50);
+    // ECEF positions, millions of meters from the origin, that floats can't represent to the
+    // millimeter.
+    double[] positions = new Georeference(-37.8, 144.95, 10)
+        .toEcefPositions(mesh.getPositions(), null, 1);
+    for (int positionBits : POSITION_BITS) {
+      DecodedMesh decoded = MeshCodec.decode(MeshCodec.encode(mesh, positions, positionBits,
+          MeshCodec.DEFAULT_NORMAL_BITS, true));
+      assertPositions(positions, decoded.getPositions(), positionBits);
+      assertArrayEquals(mesh.getIndices(), decoded.getIndices());
+    }
+  }
+
+  @Test
+  public void roundTripsNormals() {
+    Random random = new Random(3);
+    Mesh mesh = createMesh(random, 2000, 10);
+    float[] normals = mesh.getNormals();
+    // Include the axes and the folds of the octahedron, where the encoding is least smooth.
+    float[] edgeNormals = {1, 0, 0, -1, 0, 0, 0, 1, 0, 0, -1, 0, 0, 0, 1, 0, 0, -1,
+        0.70710677f, 0, -0.70710677f, 0, -0.70710677f, -0.70710677f};
+    System.arraycopy(edgeNormals, 0, normals, 0, edgeNormals.length);
+    for (int normalBits : NORMAL_BITS) {
+      DecodedMesh decoded = MeshCodec.decode(MeshCodec.encode(mesh,
+          MeshCodec.DEFAULT_POSITION_BITS, normalBits, false));
+      float[] decodedNormals = decoded.getNormals();
+      assertEquals(normals.length, decodedNormals.length);
+      double maxError = maxNormalError(normalBits);
+      for (int i = 0; i < normals.length; i += 3) {
+        double error = Math.sqrt(square(normals[i] - decodedNormals[i])
+            + square(normals[i + 1] - decodedNormals[i + 1])
+            + square(normals[i + 2] - decodedNormals[i + 2]));
+        assertTrue("Normal " + i / 3 + " is off by " + error + " at " + normalBits + " bits",
+            error <= maxError);
+        double length = Math.sqrt(square(decodedNormals[i]) + square(decodedNormals[i + 1])
+            + square(decodedNormals[i + 2]));
+        assertEquals(1, length, 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void roundTripsMeshesWithMoreThanShortIndices() {
+    Mesh mesh = createMesh(new Random(4), Mesh.MAX_SHORT_INDEXED_VERTICES + 1000, 1000);
+    DecodedMesh decoded = MeshCodec.decode(MeshCodec.encode(mesh,
+        MeshCodec.DEFAULT_POSITION_BITS, MeshCodec.DEFAULT_NORMAL_BITS, true));
+    assertArrayEquals(mesh.getIndices(), decoded.getIndices());
+    assertPositions(toDoubles(mesh.getPositions()), decoded.getPositions(),
+        MeshCodec.DEFAULT_POSITION_BITS);
+  }
+
+  @Test
+  public void deflatesOnlyWhenSmaller() {
+    Mesh mesh = createFlatMesh(1000);
+    byte[] raw = MeshCodec.encode(mesh, MeshCodec.DEFAULT_POSITION_BITS,
+        MeshCodec.DEFAULT_NORMAL_BITS, false);
+    byte[] deflated = MeshCodec.encode(mesh, MeshCodec.DEFAULT_POSITION_BITS,
+        MeshCodec.DEFAULT_NORMAL_BITS, true);
+    assertEquals(0, raw[1] & MeshCodec.DEFLATED);
+    assertEquals(MeshCodec.DEFLATED, deflated[1] & MeshCodec.DEFLATED);
+    assertTrue(deflated.length < raw.length);
+    assertDecodedEquals(MeshCodec.decode(raw), MeshCodec.decode(deflated));
+
+    // A single triangle at arbitrary double positions is mostly the full mantissas of its bounding
+    // box and step, which deflating only makes larger, so it is left raw.
+    Mesh triangle = new Mesh(new float[9], new float[] {0, 0, 1, 0, 0, 1, 0, 0, 1},
+        new int[] {0, 1, 2});
+    double[] positions = new double[9];
+    Random random = new Random(7);
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = random.nextDouble() * 1000;
+    }
+    byte[] small = MeshCodec.encode(triangle, positions, MeshCodec.DEFAULT_POSITION_BITS,
+        MeshCodec.DEFAULT_NORMAL_BITS, true);
+    assertEquals(0, small[1] & MeshCodec.DEFLATED);
+    assertArrayEquals(small, MeshCodec.encode(triangle, positions,
+        MeshCodec.DEFAULT_POSITION_BITS, MeshCodec.DEFAULT_NORMAL_BITS, false));
+    assertArrayEquals(triangle.getIndices(), MeshCodec.decode(small).getIndices());
+    assertPositions(positions, MeshCodec.decode(small).getPositions(),
+        MeshCodec.DEFAULT_POSITION_BITS);
+  }
+
+  @Test
+  public void roundTripsEmptyMeshes() {
+    Mesh empty = new Mesh(new float[0], new float[0], new int[0]);
+    for (boolean deflate : new boolean[] {false, true}) {
+      byte[] bytes = MeshCodec.encode(empty, MeshCodec.DEFAULT_POSITION_BITS,
+          MeshCodec.DEFAULT_NORMAL_BITS, deflate);
+      assertEquals(0, bytes[1] & MeshCodec.HAS_NORMALS);
+      DecodedMesh decoded = MeshCodec.decode(bytes);
+      assertEquals(0, decoded.getPositions().length);
+      assertEquals(0, decoded.getNormals().length);
+      assertEquals(0, decoded.getIndices().length);
+      assertEquals(0, decoded.toMesh().getVertexCount());
+    }
+  }
+
+  @Test
+  public void roundTripsMeshesWithoutNormals() {
+    Mesh mesh = createMesh(new Random(5), 100, 10);
+    Mesh withoutNormals = new Mesh(mesh.getPositions(), new float[0], mesh.getIndices());
+    byte[] bytes = MeshCodec.encode(withoutNormals, MeshCodec.DEFAULT_POSITION_BITS,
+        MeshCodec.DEFAULT_NORMAL_BITS, false);
+    assertEquals(0, bytes[1] & MeshCodec.HAS_NORMALS);
+    DecodedMesh decoded = MeshCodec.decode(bytes);
+    assertEquals(0, decoded.getNormals().length);
+    assertArrayEquals(mesh.getIndices(), decoded.getIndices());
+    assertPositions(toDoubles(mesh.getPositions()), decoded.getPositions(),
+        MeshCodec.DEFAULT_POSITION_BITS);
+  }
+
+  @Test
+  public void rejectsMalformedInput() {
+    Mesh mesh = createMesh(new Random(6), 100, 10);
+    byte[] bytes = MeshCodec.encode(mesh, MeshCodec.DEFAULT_POSITION_BITS,
+        MeshCodec.DEFAULT_NORMAL_BITS, false);
+    byte[] deflated = MeshCodec.encode(createFlatMesh(100), MeshCodec.DEFAULT_POSITION_BITS,
+        MeshCodec.DEFAULT_NORMAL_BITS, true);
+    byte[] wrongVersion = bytes.clone();
+    wrongVersion[0] = MeshCodec.VERSION + 1;
+    Mesh outOfRange = new Mesh(new float[] {0, 0, 0, 1, 0, 0, 0, 1, 0}, new float[0],
+        new int[] {0, 1, 3});
+
+    assertRejected(new byte[0]);
+    assertRejected(wrongVersion);
+    assertRejected(Arrays.copyOf(bytes, bytes.length / 2));
+    assertRejected(Arrays.copyOf(deflated, deflated.length / 2));
+    assertRejected(MeshCodec.encode(outOfRange, MeshCodec.DEFAULT_POSITION_BITS,
+        MeshCodec.DEFAULT_NORMAL_BITS, false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTooManyPositionBits() {
+    MeshCodec.encode(createFlatMesh(1), MeshCodec.MAX_POSITION_BITS + 1,
+        MeshCodec.DEFAULT_NORMAL_BITS, false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTooFewNormalBits() {
+    MeshCodec.encode(createFlatMesh(1), MeshCodec.DEFAULT_POSITION_BITS, 1, false);
+  }
+
+  /**
+   * Checks each decoded position is within half a quantization step of the original, where the
+   * step divides the largest extent of the mesh's bounding box into 2^positionBits - 1.
+   */
+  private static void assertPositions(double[] expected, double[] actual, int positionBits) {
+    assertEquals(expected.length, actual.length);
+    double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+    double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    for (int i = 0; i < expected.length; i++) {
+      min[i % 3] = Math.min(min[i % 3], expected[i]);
+      max[i % 3] = Math.max(max[i % 3], expected[i]);
+    }
+    double extent = 0;
+    double magnitude = 0;
+    for (int axis = 0; axis < 3; axis++) {
+      extent = Math.max(extent, max[axis] - min[axis]);
+      magnitude = Math.max(magnitude, Math.max(Math.abs(min[axis]), Math.abs(max[axis])));
+    }
+    double step = extent / ((1L << positionBits) - 1);
+    // Allow for the rounding of the dequantized doubles themselves.
+    double maxError = step / 2 + Math.ulp(magnitude) * 4;
+    for (int i = 0; i < expected.length; i++) {
+      double error = Math.abs(expected[i] - actual[i]);
+      assertTrue("Position component " + i + " is off by " + error + ", more than " + maxError
+          + " at " + positionBits + " bits", error <= maxError);
+    }
+  }
+
+  private static void assertDecodedEquals(DecodedMesh expected, DecodedMesh actual) {
+    assertArrayEquals(expected.getPositions(), actual.getPositions(), 0);
+    assertArrayEquals(expected.getNormals(), actual.getNormals(), 0);
+    assertArrayEquals(expected.getIndices(), actual.getIndices());
+  }
+
+  private static void assertRejected(byte[] bytes) {
+    try {
+      MeshCodec.decode(bytes);
+      fail("Decoded a malformed mesh of " + bytes.length + " bytes");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * The largest distance between a unit normal and its decoded normal. Each octahedral component
+   * is rounded by at most half a step of 1 / (2^(normalBits - 1) - 1), which moves the point on
+   * the octahedron by at most half a step in x and y and a step in z, i.e. sqrt(1.5) steps.
+   * Normalizing it onto the unit sphere scales that by at most sqrt(3), since the octahedron is
+   * nowhere closer to the origin than 1 / sqrt(3).
+   */
+  private static double maxNormalError(int normalBits) {
+    return Math.sqrt(3) * Math.sqrt(1.5) / ((1 << (normalBits - 1)) - 1);
+  }
+
+  /**
+   * Creates a mesh of random triangles within a cube of the given size, with random unit normals.
+   */
+  private static Mesh createMesh(Random random, int vertexCount, double size) {
+    float[] positions = new float[vertexCount * 3];
+    float[] normals = new float[vertexCount * 3];
+    for (int i = 0; i < positions.length; i += 3) {
+      double x = random.nextGaussian();
+      double y = random.nextGaussian();
+      double z = random.nextGaussian();
+      double length = Math.sqrt(x * x + y * y + z * z);
+      normals[i] = (float) (x / length);
+      normals[i + 1] = (float) (y / length);
+      normals[i + 2] = (float) (z / length);
+      for (int axis = 0; axis < 3; axis++) {
+        positions[i + axis] = (float) ((random.nextDouble() - 0.5) * size);
+      }
+    }
+    int[] indices = new int[vertexCount * 3];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = random.nextInt(vertexCount);
+    }
+    return new Mesh(positions, normals, indices);
+  }
+
+  /**
+   * Creates a row of flat-shaded unit squares facing up, as repetitive as BIM geometry.
+   */
+  private static Mesh createFlatMesh(int squares) {
+    float[] positions = new float[squares * 12];
+    float[] normals = new float[squares * 12];
+    int[] indices = new int[squares * 6];
+    float[] corners = {0, 0, 1, 0, 1, 1, 0, 1};
+    for (int s = 0; s < squares; s++) {
+      for (int c = 0; c < 4; c++) {
+        int offset = (s * 4 + c) * 3;
+        positions[offset] = s + corners[c * 2];
+        positions[offset + 1] = corners[c * 2 + 1];
+        normals[offset + 2] = 1;
+      }
+      int[] square = {0, 1, 2, 0, 2, 3};
+      for (int i = 0; i < square.length; i++) {
+        indices[s * 6 + i] = s * 4 + square[i];
+      }
+    }
+    return new Mesh(positions, normals, indices);
+  }
+
+  private static double[] toDoubles(float[] values) {
+    double[] result = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = values[i];
+    }
+    return result;
+  }
+
+  private static double square(double value) {
+    return value * value;
+  }
+}
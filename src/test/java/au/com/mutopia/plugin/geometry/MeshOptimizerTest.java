@@ -0,0 +1,171 @@
+package au.com.mutopia.plugin.geometry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MeshOptimizer} keeps every triangle and its winding while improving the
+ * vertex cache and fetch order.
+ */
+public class MeshOptimizerTest {
+
+  @Test
+  public void keepsTrianglesAndImprovesAcmr() {
+    Mesh mesh = shuffleTriangles(MeshWelderTest.createGrid(40, false), new Random(1));
+    double acmr = MeshOptimizer.calculateAcmr(mesh.getIndices(), mesh.getVertexCount());
+    Mesh optimized = MeshOptimizer.optimize(mesh);
+    double optimizedAcmr =
+        MeshOptimizer.calculateAcmr(optimized.getIndices(), optimized.getVertexCount());
+    assertSameTriangles(mesh, optimized);
+    assertTrue("ACMR went from " + acmr + " to " + optimizedAcmr, optimizedAcmr < acmr);
+    // A regular grid can get close to one vertex per two triangles.
+    assertTrue("ACMR is " + optimizedAcmr, optimizedAcmr < 0.8);
+  }
+
+  @Test
+  public void doesNotWorsenAcmr() {
+    Random random = new Random(2);
+    Mesh[] meshes = {MeshWelderTest.createGrid(10, false), MeshWelderTest.createGrid(10, true),
+        shuffleTriangles(MeshWelderTest.createGrid(5, false), random),
+        createRandom(random, 50, 200)};
+    for (Mesh mesh : meshes) {
+      double acmr = MeshOptimizer.calculateAcmr(mesh.getIndices(), mesh.getVertexCount());
+      Mesh optimized = MeshOptimizer.optimize(mesh);
+      double optimizedAcmr =
+          MeshOptimizer.calculateAcmr(optimized.getIndices(), optimized.getVertexCount());
+      assertSameTriangles(mesh, optimized);
+      assertTrue("ACMR went from " + acmr + " to " + optimizedAcmr, optimizedAcmr <= acmr);
+    }
+  }
+
+  @Test
+  public void numbersVerticesInOrderOfFirstUse() {
+    Mesh optimized = MeshOptimizer.optimize(
+        shuffleTriangles(MeshWelderTest.createGrid(20, false), new Random(3)));
+    int next = 0;
+    for (int index : optimized.getIndices()) {
+      assertTrue(index <= next);
+      if (index == next) {
+        next++;
+      }
+    }
+    assertEquals(optimized.getVertexCount(), next);
+  }
+
+  @Test
+  public void dropsUnreferencedVertices() {
+    Mesh mesh = new Mesh(
+        new float[] {9, 9, 9, 0, 0, 0, 1, 0, 0, 8, 8, 8, 0, 1, 0},
+        new float[] {1, 0, 0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 0, 0, 1},
+        new int[] {1, 2, 4});
+    Mesh optimized = MeshOptimizer.optimizeVertexFetch(mesh);
+    assertEquals(3, optimized.getVertexCount());
+    assertArrayEquals(new int[] {0, 1, 2}, optimized.getIndices());
+    assertArrayEquals(new float[] {0, 0, 0, 1, 0, 0, 0, 1, 0}, optimized.getPositions(), 0);
+    assertArrayEquals(new float[] {0, 0, 1, 0, 0, 1, 0, 0, 1}, optimized.getNormals(), 0);
+  }
+
+  @Test
+  public void dropsNormalsThatDontMatchTheVertices() {
+    Mesh mesh = new Mesh(new float[] {9, 9, 9, 0, 0, 0, 1, 0, 0, 0, 1, 0},
+        new float[] {0, 0, 1}, new int[] {1, 2, 3});
+    Mesh optimized = MeshOptimizer.optimize(mesh);
+    assertEquals(3, optimized.getVertexCount());
+    assertEquals(0, optimized.getNormals().length);
+  }
+
+  @Test
+  public void leavesMalformedMeshesAlone() {
+    Mesh mesh = new Mesh(new float[] {0, 0, 0, 1, 0, 0, 0, 1, 0}, new float[0],
+        new int[] {0, 1, 3});
+    assertSame(mesh, MeshOptimizer.optimize(mesh));
+  }
+
+  @Test
+  public void calculatesAcmr() {
+    assertEquals(0, MeshOptimizer.calculateAcmr(new int[0], 0), 0);
+    assertEquals(3, MeshOptimizer.calculateAcmr(new int[] {0, 1, 2}, 3), 0);
+    // The second triangle reuses two cached vertices.
+    assertEquals(2, MeshOptimizer.calculateAcmr(new int[] {0, 1, 2, 2, 1, 3}, 4), 0);
+    // With a cache of one entry only the most recent vertex is reused.
+    assertEquals(2.5, MeshOptimizer.calculateAcmr(new int[] {0, 1, 2, 2, 1, 3}, 4, 1), 0);
+  }
+
+  private static Mesh createRandom(Random random, int vertexCount, int triangleCount) {
+    float[] positions = new float[vertexCount * 3];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = random.nextFloat();
+    }
+    int[] indices = new int[triangleCount * 3];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = random.nextInt(vertexCount);
+    }
+    return new Mesh(positions, new float[0], indices);
+  }
+
+  private static Mesh shuffleTriangles(Mesh mesh, Random random) {
+    int[] indices = mesh.getIndices();
+    List<Integer> triangles = new ArrayList<>();
+    for (int i = 0; i < indices.length / 3; i++) {
+      triangles.add(i);
+    }
+    Collections.shuffle(triangles, random);
+    int[] shuffled = new int[indices.length];
+    for (int i = 0; i < triangles.size(); i++) {
+      System.arraycopy(indices, triangles.get(i) * 3, shuffled, i * 3, 3);
+    }
+    return new Mesh(mesh.getPositions(), mesh.getNormals(), shuffled);
+  }
+
+  /**
+   * Checks that the meshes have the same triangles, by the positions and normals of their
+   * vertices, in any order and starting from any vertex but with the same winding.
+   */
+  static void assertSameTriangles(Mesh expected, Mesh actual) {
+    assertEquals(triangleKeys(expected), triangleKeys(actual));
+  }
+
+  private static List<String> triangleKeys(Mesh mesh) {
+    int[] indices = mesh.getIndices();
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < indices.length; i += 3) {
+      String[] vertices = new String[3];
+      for (int j = 0; j < 3; j++) {
+        vertices[j] = vertexKey(mesh, indices[i + j]);
+      }
+      // Rotate the smallest vertex first, which keeps the winding.
+      int first = 0;
+      for (int j = 1; j < 3; j++) {
+        if (vertices[j].compareTo(vertices[first]) < 0) {
+          first = j;
+        }
+      }
+      keys.add(vertices[first] + "|" + vertices[(first + 1) % 3] + "|"
+          + vertices[(first + 2) % 3]);
+    }
+    Collections.sort(keys);
+    return keys;
+  }
+
+  private static String vertexKey(Mesh mesh, int vertex) {
+    StringBuilder key = new StringBuilder();
+    for (int axis = 0; axis < 3; axis++) {
+      key.append(mesh.getPositions()[vertex * 3 + axis] + 0.0f).append(',');
+    }
+    if (mesh.getNormals().length > 0) {
+      for (int axis = 0; axis < 3; axis++) {
+        key.append(mesh.getNormals()[vertex * 3 + axis] + 0.0f).append(',');
+      }
+    }
+    return key.toString();
+  }
+}
@@ -0,0 +1,138 @@
+package au.com.mutopia.plugin.geometry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MeshWelder} merges exactly the vertices with the same position and normal and
+ * keeps every triangle.
+ */
+public class MeshWelderTest {
+
+  @Test
+  public void mergesDuplicateVertices() {
+    // A unit square stored the way BIMserver stores it, with three unshared vertices per triangle.
+    Mesh mesh = new Mesh(
+        new float[] {0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 0, 0, 1, 1, 0, 0, 1, 0},
+        new float[] {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1},
+        new int[] {0, 1, 2, 3, 4, 5});
+    Mesh welded = MeshWelder.weld(mesh);
+    assertEquals(4, welded.getVertexCount());
+    assertArrayEquals(new int[] {0, 1, 2, 0, 2, 3}, welded.getIndices());
+    assertSameTriangles(mesh, welded);
+  }
+
+  @Test
+  public void keepsVerticesWithDifferentNormalsApart() {
+    // Two faces of a box meeting at an edge share positions but not normals.
+    Mesh mesh = new Mesh(
+        new float[] {0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, -1, 0},
+        new float[] {0, -1, 0, 0, -1, 0, 0, -1, 0, 0, 0, -1, 0, 0, -1, 0, 0, -1},
+        new int[] {0, 1, 2, 3, 4, 5});
+    Mesh welded = MeshWelder.weld(mesh);
+    assertSame(mesh, welded);
+  }
+
+  @Test
+  public void foldsNegativeZero() {
+    Mesh mesh = new Mesh(
+        new float[] {0, 0, 0, 1, 0, 0, 0, 1, 0, -0.0f, 0, -0.0f, 1, -0.0f, 0, 0, 1, 0},
+        new float[] {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, -0.0f, 1, 0, 0, 1, -0.0f, 0, 1},
+        new int[] {0, 1, 2, 3, 4, 5});
+    Mesh welded = MeshWelder.weld(mesh);
+    assertEquals(3, welded.getVertexCount());
+    assertArrayEquals(new int[] {0, 1, 2, 0, 1, 2}, welded.getIndices());
+    assertSameTriangles(mesh, welded);
+  }
+
+  @Test
+  public void mergesWithoutNormals() {
+    Mesh mesh = new Mesh(new float[] {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 0, 0, 0, 1, 0, 1, 1, 0},
+        new float[0], new int[] {0, 1, 2, 3, 4, 5});
+    Mesh welded = MeshWelder.weld(mesh);
+    assertEquals(4, welded.getVertexCount());
+    assertEquals(0, welded.getNormals().length);
+    assertArrayEquals(new int[] {0, 1, 2, 1, 2, 3}, welded.getIndices());
+    assertSameTriangles(mesh, welded);
+  }
+
+  @Test
+  public void dropsNormalsThatDontMatchTheVertices() {
+    Mesh mesh = new Mesh(new float[] {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 0, 0, 0, 1, 0, 1, 1, 0},
+        new float[] {0, 0, 1}, new int[] {0, 1, 2, 3, 4, 5});
+    Mesh welded = MeshWelder.weld(mesh);
+    assertEquals(4, welded.getVertexCount());
+    assertEquals(0, welded.getNormals().length);
+  }
+
+  @Test
+  public void weldsLargeMeshes() {
+    Mesh mesh = createGrid(300, true);
+    Mesh welded = MeshWelder.weld(mesh);
+    assertEquals(301 * 301, welded.getVertexCount());
+    assertSameTriangles(mesh, welded);
+  }
+
+  @Test
+  public void leavesMalformedMeshesAlone() {
+    Mesh mesh = new Mesh(new float[] {0, 0, 0, 1, 0, 0, 0, 0, 0}, new float[0],
+        new int[] {0, 1, 3});
+    assertSame(mesh, MeshWelder.weld(mesh));
+  }
+
+  /**
+   * Creates a flat grid of size by size squares facing up, each split into two triangles.
+   *
+   * @param unshared Whether every triangle has its own three vertices, as BIMserver stores them,
+   *     rather than sharing the grid's vertices.
+   */
+  static Mesh createGrid(int size, boolean unshared) {
+    int[] grid = new int[size * size * 6];
+    int offset = 0;
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        int corner = y * (size + 1) + x;
+        int[] square = {corner, corner + 1, corner + size + 2, corner, corner + size + 2,
+            corner + size + 1};
+        System.arraycopy(square, 0, grid, offset, 6);
+        offset += 6;
+      }
+    }
+    int vertexCount = unshared ? grid.length : (size + 1) * (size + 1);
+    float[] positions = new float[vertexCount * 3];
+    float[] normals = new float[vertexCount * 3];
+    int[] indices = new int[grid.length];
+    for (int i = 0; i < grid.length; i++) {
+      int vertex = unshared ? i : grid[i];
+      positions[vertex * 3] = grid[i] % (size + 1);
+      positions[vertex * 3 + 1] = grid[i] / (size + 1);
+      normals[vertex * 3 + 2] = 1;
+      indices[i] = vertex;
+    }
+    return new Mesh(positions, normals, indices);
+  }
+
+  /**
+   * Checks that each triangle of the welded mesh has the positions and normals, in the same order,
+   * as the triangle at the same place in the original mesh, with -0 equal to 0.
+   */
+  private static void assertSameTriangles(Mesh expected, Mesh actual) {
+    int[] expectedIndices = expected.getIndices();
+    int[] actualIndices = actual.getIndices();
+    assertEquals(expectedIndices.length, actualIndices.length);
+    boolean hasNormals = actual.getNormals().length > 0;
+    for (int i = 0; i < expectedIndices.length; i++) {
+      for (int axis = 0; axis < 3; axis++) {
+        assertEquals(expected.getPositions()[expectedIndices[i] * 3 + axis],
+            actual.getPositions()[actualIndices[i] * 3 + axis], 0);
+        if (hasNormals) {
+          assertEquals(expected.getNormals()[expectedIndices[i] * 3 + axis],
+              actual.getNormals()[actualIndices[i] * 3 + axis], 0);
+        }
+      }
+    }
+  }
+}
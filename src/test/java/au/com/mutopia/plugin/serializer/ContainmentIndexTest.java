@@ -0,0 +1,152 @@
+package au.com.mutopia.plugin.serializer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.ifc.IfcModel;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Factory;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingStorey;
+import org.bimserver.models.ifc2x3tc1.IfcObjectDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcProject;
+import org.bimserver.models.ifc2x3tc1.IfcRelAggregates;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.models.ifc2x3tc1.IfcSite;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.junit.Test;
+
+import au.com.mutopia.plugin.schema.SchemaAdapters;
+import au.com.mutopia.plugin.util.Diagnostics;
+
+/**
+ * Builds small in-memory models and checks which products are found as the roots of the subtrees
+ * that can't be reached from the project.
+ */
+public class ContainmentIndexTest {
+
+  private static final Ifc2x3tc1Factory factory = Ifc2x3tc1Factory.eINSTANCE;
+
+  private final IfcModel model = new IfcModel();
+  private long nextOid = 1;
+
+  @Test
+  public void findsNothingWhenEverythingIsReachable() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall wall = add(factory.createIfcWall());
+    contain(storey, wall);
+
+    assertEquals(Collections.emptyList(), findUnassignedRoots(storey, wall));
+  }
+
+  @Test
+  public void findsOrphans() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall orphan = add(factory.createIfcWall());
+
+    assertEquals(Arrays.asList(orphan), findUnassignedRoots(storey, orphan));
+  }
+
+  @Test
+  public void findsOnlyTheTopOfAnUnreachableChain() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall top = add(factory.createIfcWall());
+    IfcWall middle = add(factory.createIfcWall());
+    IfcWall bottom = add(factory.createIfcWall());
+    aggregate(top, middle);
+    aggregate(middle, bottom);
+
+    assertEquals(Arrays.asList(top), findUnassignedRoots(bottom, storey, middle, top));
+  }
+
+  @Test
+  public void skipsProductsWithAReachableParent() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall assembly = add(factory.createIfcWall());
+    IfcWall part = add(factory.createIfcWall());
+    // The part is both contained in the storey and aggregated by an unreachable assembly.
+    contain(storey, part);
+    aggregate(assembly, part);
+
+    assertEquals(Arrays.asList(assembly), findUnassignedRoots(storey, part, assembly));
+  }
+
+  @Test
+  public void rootsLoopsAtTheFirstProduct() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall first = add(factory.createIfcWall());
+    IfcWall second = add(factory.createIfcWall());
+    IfcWall child = add(factory.createIfcWall());
+    aggregate(first, second);
+    aggregate(second, first, child);
+
+    assertEquals(Arrays.asList(first), findUnassignedRoots(storey, child, first, second));
+    assertEquals(Arrays.asList(second), findUnassignedRoots(storey, child, second, first));
+  }
+
+  @Test
+  public void rootsLoopsBelowAnUnreachableProductAtThatProduct() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall top = add(factory.createIfcWall());
+    IfcWall first = add(factory.createIfcWall());
+    IfcWall second = add(factory.createIfcWall());
+    aggregate(top, first);
+    aggregate(first, second);
+    aggregate(second, first);
+
+    assertEquals(Arrays.asList(top), findUnassignedRoots(storey, second, first, top));
+  }
+
+  @Test
+  public void rootsNestedLoopsAtTheTopLoop() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall upper = add(factory.createIfcWall());
+    IfcWall upperLoop = add(factory.createIfcWall());
+    IfcWall lower = add(factory.createIfcWall());
+    IfcWall lowerLoop = add(factory.createIfcWall());
+    aggregate(upper, upperLoop, lower);
+    aggregate(upperLoop, upper);
+    aggregate(lower, lowerLoop);
+    aggregate(lowerLoop, lower);
+
+    assertEquals(Arrays.asList(upperLoop),
+        findUnassignedRoots(storey, lower, lowerLoop, upperLoop, upper));
+  }
+
+  private IfcBuildingStorey createSpatialStructure() throws Exception {
+    IfcProject project = add(factory.createIfcProject());
+    IfcSite site = add(factory.createIfcSite());
+    IfcBuildingStorey storey = add(factory.createIfcBuildingStorey());
+    aggregate(project, site);
+    aggregate(site, storey);
+    return storey;
+  }
+
+  private List<IdEObject> findUnassignedRoots(IdEObject... products) throws Exception {
+    return new ContainmentIndex(SchemaAdapters.forModel(model, new Diagnostics()))
+        .findUnassignedRoots(Arrays.asList(products));
+  }
+
+  private <T extends IdEObject> T add(T object) throws Exception {
+    ((IdEObjectImpl) object).setOid(nextOid);
+    model.add(nextOid++, object);
+    return object;
+  }
+
+  private void aggregate(IfcObjectDefinition parent, IfcObjectDefinition... children)
+      throws Exception {
+    IfcRelAggregates aggregates = add(factory.createIfcRelAggregates());
+    aggregates.setRelatingObject(parent);
+    Collections.addAll(aggregates.getRelatedObjects(), children);
+  }
+
+  private void contain(IfcBuildingStorey storey, IfcWall... elements) throws Exception {
+    IfcRelContainedInSpatialStructure contained =
+        add(factory.createIfcRelContainedInSpatialStructure());
+    contained.setRelatingStructure(storey);
+    Collections.addAll(contained.getRelatedElements(), elements);
+  }
+}
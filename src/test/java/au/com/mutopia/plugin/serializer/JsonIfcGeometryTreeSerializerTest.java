@@ -0,0 +1,276 @@
+package au.com.mutopia.plugin.serializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.ifc.IfcModel;
+import org.bimserver.models.ifc2x3tc1.GeometryData;
+import org.bimserver.models.ifc2x3tc1.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Factory;
+import org.bimserver.models.ifc2x3tc1.IfcBuilding;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingStorey;
+import org.bimserver.models.ifc2x3tc1.IfcLabel;
+import org.bimserver.models.ifc2x3tc1.IfcObject;
+import org.bimserver.models.ifc2x3tc1.IfcObjectDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcProject;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcRelAggregates;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.bimserver.models.ifc2x3tc1.IfcSite;
+import org.bimserver.models.ifc2x3tc1.IfcSpace;
+import org.bimserver.models.ifc2x3tc1.IfcSpatialStructureElement;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.models.ifc2x3tc1.impl.IfcWallImpl;
+import org.junit.Test;
+
+import au.com.mutopia.plugin.geometry.Mesh;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Serializes small in-memory models and checks what is written for objects reached more than once
+ * and for large meshes.
+ */
+public class JsonIfcGeometryTreeSerializerTest {
+
+  private static final Ifc2x3tc1Factory factory = Ifc2x3tc1Factory.eINSTANCE;
+
+  private final IfcModel model = new IfcModel();
+  private long nextOid = 1;
+
+  @Test
+  public void writesReferencesOnlyToWrittenObjects() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall wall = add(factory.createIfcWall(), "WALL", "Wall");
+    IfcWall unreadable = add(new IfcWallImpl() {
+      @Override
+      public String getName() {
+        throw new IllegalStateException("Unreadable name");
+      }
+    }, "UNREADABLE", "Unreadable");
+    // Both walls are reached twice: contained in and decomposing the storey.
+    contain(storey, wall, unreadable);
+    aggregate(storey, wall, unreadable);
+
+    JsonObject output = serialize(new SerializerSettings());
+
+    assertEquals(1, findObjects(output, "WALL").size());
+    assertEquals(1, findReferences(output, "WALL"));
+    assertTrue(findObjects(output, "UNREADABLE").isEmpty());
+    assertEquals(0, findReferences(output, "UNREADABLE"));
+    // The failure is recorded once, not for every occurrence.
+    JsonArray errors = output.getAsJsonArray("errors");
+    assertNotNull(errors);
+    assertEquals(1, errors.size());
+    assertEquals("UNREADABLE", errors.get(0).getAsJsonObject().get("id").getAsString());
+  }
+
+  @Test
+  public void writesStructureAgainWhenReachedIncluded() throws Exception {
+    IfcProject project = add(factory.createIfcProject(), "PROJECT", "Project");
+    IfcBuilding building = add(factory.createIfcBuilding(), "BUILDING", "Building");
+    IfcBuildingStorey level1 = add(factory.createIfcBuildingStorey(), "LEVEL1", "Level 1");
+    IfcBuildingStorey level2 = add(factory.createIfcBuildingStorey(), "LEVEL2", "Level 2");
+    IfcSpace wing = add(factory.createIfcSpace(), "WING", "Wing");
+    IfcSpace room = add(factory.createIfcSpace(), "ROOM", "Room");
+    aggregate(project, building);
+    aggregate(building, level1, level2);
+    // The wing spans both levels. Below level 1 it is only an ancestor of the included room, so it
+    // is first written as structure; below level 2 it is inside an included container.
+    aggregate(level1, wing);
+    aggregate(level2, wing);
+    aggregate(wing, room);
+    setParameter(wing, "Zone", "North");
+
+    SerializerSettings settings = new SerializerSettings();
+    settings.setIncludeContainers(SerializerSettings.parseList("Level 2, ROOM"));
+    JsonObject output = serialize(settings);
+
+    List<JsonObject> wings = findObjects(output, "WING");
+    assertEquals(2, wings.size());
+    assertNull(wings.get(0).get("parameters"));
+    JsonObject parameters = wings.get(1).getAsJsonObject("parameters");
+    assertNotNull(parameters);
+    assertEquals("North", parameters.get("Zone").getAsString());
+    assertEquals(0, findReferences(output, "WING"));
+    // The room is reached through both wings, and only written in full once.
+    assertEquals(1, findObjects(output, "ROOM").size());
+    assertEquals(1, findReferences(output, "ROOM"));
+    assertFalse(output.has("errors"));
+  }
+
+  @Test
+  public void capsLargeMeshesOnlyWithoutWeldingOrCompression() throws Exception {
+    IfcBuildingStorey storey = createSpatialStructure();
+    IfcWall small = add(factory.createIfcWall(), "SMALL", "Small");
+    IfcWall large = add(factory.createIfcWall(), "LARGE", "Large");
+    contain(storey, small, large);
+    setGeometry(small, 3);
+    // Distinct vertices, so welding keeps all of them.
+    setGeometry(large, Mesh.MAX_SHORT_INDEXED_VERTICES + 3);
+
+    JsonObject output = serialize(new SerializerSettings());
+    JsonObject smallGeometry = findObjects(output, "SMALL").get(0).getAsJsonObject("geometry");
+    assertEquals("uint16", smallGeometry.get("indexType").getAsString());
+    assertEquals(9, smallGeometry.getAsJsonArray("positions").size());
+    JsonObject largeGeometry = findObjects(output, "LARGE").get(0).getAsJsonObject("geometry");
+    assertTrue(largeGeometry.has("color"));
+    assertFalse(largeGeometry.has("indexType"));
+    assertFalse(largeGeometry.has("positions"));
+
+    SerializerSettings settings = new SerializerSettings();
+    settings.setWeldVertices(true);
+    largeGeometry = findObjects(serialize(settings), "LARGE").get(0).getAsJsonObject("geometry");
+    assertEquals("uint32", largeGeometry.get("indexType").getAsString());
+    assertEquals((Mesh.MAX_SHORT_INDEXED_VERTICES + 3) * 3,
+        largeGeometry.getAsJsonArray("positions").size());
+
+    settings = new SerializerSettings();
+    settings.setCompressGeometry(true);
+    largeGeometry = findObjects(serialize(settings), "LARGE").get(0).getAsJsonObject("geometry");
+    assertEquals("uint32", largeGeometry.get("indexType").getAsString());
+    assertTrue(largeGeometry.has("data"));
+  }
+
+  private IfcBuildingStorey createSpatialStructure() throws Exception {
+    IfcProject project = add(factory.createIfcProject(), "PROJECT", "Project");
+    IfcSite site = add(factory.createIfcSite(), "SITE", "Site");
+    IfcBuildingStorey storey = add(factory.createIfcBuildingStorey(), "STOREY", "Level 1");
+    aggregate(project, site);
+    aggregate(site, storey);
+    return storey;
+  }
+
+  private JsonObject serialize(SerializerSettings settings) throws Exception {
+    JsonIfcGeometryTreeSerializer serializer = new JsonIfcGeometryTreeSerializer(settings);
+    serializer.init(model, null, null, null, false);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.writeToOutputStream(out);
+    return new JsonParser().parse(out.toString("UTF-8")).getAsJsonObject();
+  }
+
+  /**
+   * @return The objects written with the id, in document order.
+   */
+  private static List<JsonObject> findObjects(JsonElement element, String id) {
+    List<JsonObject> objects = new ArrayList<>();
+    collect(element, "id", id, objects);
+    return objects;
+  }
+
+  /**
+   * @return The number of references to the id.
+   */
+  private static int findReferences(JsonElement element, String id) {
+    List<JsonObject> references = new ArrayList<>();
+    collect(element, "ref", id, references);
+    return references.size();
+  }
+
+  private static void collect(JsonElement element, String name, String value,
+      List<JsonObject> result) {
+    if (element.isJsonArray()) {
+      for (JsonElement child : element.getAsJsonArray()) {
+        collect(child, name, value, result);
+      }
+    } else if (element.isJsonObject()) {
+      JsonObject object = element.getAsJsonObject();
+      JsonElement field = object.get(name);
+      if (field != null && field.isJsonPrimitive() && field.getAsString().equals(value)
+          && !object.has("stage")) {
+        result.add(object);
+      }
+      for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+        collect(entry.getValue(), name, value, result);
+      }
+    }
+  }
+
+  private <T extends IdEObject> T add(T object, String globalId, String name) throws Exception {
+    ((IdEObjectImpl) object).setOid(nextOid);
+    model.add(nextOid++, object);
+    if (object instanceof IfcRoot) {
+      ((IfcRoot) object).setGlobalId(globalId);
+      ((IfcRoot) object).setName(name);
+    }
+    return object;
+  }
+
+  private void aggregate(IfcObjectDefinition parent, IfcObjectDefinition... children)
+      throws Exception {
+    IfcRelAggregates aggregates = add(factory.createIfcRelAggregates(), null, null);
+    aggregates.setRelatingObject(parent);
+    Collections.addAll(aggregates.getRelatedObjects(), children);
+  }
+
+  private void contain(IfcSpatialStructureElement structure, IfcWall... elements)
+      throws Exception {
+    IfcRelContainedInSpatialStructure contained =
+        add(factory.createIfcRelContainedInSpatialStructure(), null, null);
+    contained.setRelatingStructure(structure);
+    Collections.addAll(contained.getRelatedElements(), elements);
+  }
+
+  /**
+   * Gives the product a mesh of distinct vertices along the x axis, three per triangle.
+   */
+  private void setGeometry(IfcProduct product, int vertexCount) throws Exception {
+    ByteBuffer vertices = allocate(vertexCount * 3);
+    ByteBuffer normals = allocate(vertexCount * 3);
+    ByteBuffer indices = allocate(vertexCount);
+    for (int i = 0; i < vertexCount; i++) {
+      vertices.putFloat(i).putFloat(i % 3 == 1 ? 1 : 0).putFloat(i % 3 == 2 ? 1 : 0);
+      normals.putFloat(0).putFloat(0).putFloat(1);
+      indices.putInt(i);
+    }
+    ByteBuffer transformation = allocate(16);
+    for (float value : new float[] {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1}) {
+      transformation.putFloat(value);
+    }
+    GeometryData data = add(factory.createGeometryData(), null, null);
+    data.setVertices(vertices.array());
+    data.setNormals(normals.array());
+    data.setIndices(indices.array());
+    GeometryInfo info = add(factory.createGeometryInfo(), null, null);
+    info.setData(data);
+    info.setTransformation(transformation.array());
+    product.setGeometry(info);
+  }
+
+  private static ByteBuffer allocate(int count) {
+    return ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private void setParameter(IfcObject object, String name, String value) throws Exception {
+    IfcLabel label = add(factory.createIfcLabel(), null, null);
+    label.setWrappedValue(value);
+    IfcPropertySingleValue property = add(factory.createIfcPropertySingleValue(), null, null);
+    property.setName(name);
+    property.setNominalValue(label);
+    IfcPropertySet propertySet = add(factory.createIfcPropertySet(), null, null);
+    propertySet.getHasProperties().add(property);
+    IfcRelDefinesByProperties defines = add(factory.createIfcRelDefinesByProperties(), null, null);
+    defines.setRelatingPropertyDefinition(propertySet);
+    defines.getRelatedObjects().add(object);
+  }
+}
@@ -0,0 +1,69 @@
+package au.com.mutopia.plugin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link LongHashSet} with the values its open-addressing table treats specially and while
+ * it grows.
+ */
+public class LongHashSetTest {
+
+  @Test
+  public void addsZero() {
+    LongHashSet set = new LongHashSet();
+    assertFalse(set.contains(0));
+    assertTrue(set.add(0));
+    assertFalse(set.add(0));
+    assertTrue(set.contains(0));
+    assertEquals(1, set.size());
+  }
+
+  @Test
+  public void addsNegativeAndExtremeValues() {
+    LongHashSet set = new LongHashSet();
+    long[] values = {-1, -2, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, -(1L << 32)};
+    for (long value : values) {
+      assertTrue(set.add(value));
+    }
+    for (long value : values) {
+      assertTrue(set.contains(value));
+      assertFalse(set.add(value));
+    }
+    assertFalse(set.contains(0));
+    assertFalse(set.contains(1));
+    assertEquals(values.length, set.size());
+  }
+
+  @Test
+  public void growsPastTheLoadFactor() {
+    // Starts with room for one value, so it resizes many times.
+    LongHashSet set = new LongHashSet(1);
+    for (long value = -5000; value < 5000; value++) {
+      assertTrue(set.add(value * 31));
+    }
+    assertEquals(10000, set.size());
+    for (long value = -5000; value < 5000; value++) {
+      assertTrue(set.contains(value * 31));
+      assertFalse(set.contains(value * 31 + 1));
+    }
+  }
+
+  @Test
+  public void clears() {
+    LongHashSet set = new LongHashSet();
+    for (long value = -100; value <= 100; value++) {
+      set.add(value);
+    }
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(0));
+    assertFalse(set.contains(42));
+    assertTrue(set.add(0));
+    assertTrue(set.add(42));
+    assertEquals(2, set.size());
+  }
+}
@@ -0,0 +1,81 @@
+package au.com.mutopia.plugin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link LongLongHashMap} with the keys its open-addressing table treats specially and
+ * while it grows.
+ */
+public class LongLongHashMapTest {
+
+  @Test
+  public void mapsZero() {
+    LongLongHashMap map = new LongLongHashMap();
+    assertFalse(map.containsKey(0));
+    assertEquals(-1, map.get(0, -1));
+    map.put(0, 0);
+    assertTrue(map.containsKey(0));
+    assertEquals(0, map.get(0, -1));
+    map.put(0, 7);
+    assertEquals(7, map.get(0, -1));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void mapsNegativeAndExtremeKeys() {
+    LongLongHashMap map = new LongLongHashMap();
+    long[] keys = {-1, -2, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, -(1L << 32)};
+    for (long key : keys) {
+      map.put(key, ~key);
+    }
+    for (long key : keys) {
+      assertTrue(map.containsKey(key));
+      assertEquals(~key, map.get(key, 0));
+    }
+    assertFalse(map.containsKey(0));
+    assertEquals(5, map.get(1, 5));
+    assertEquals(keys.length, map.size());
+  }
+
+  @Test
+  public void replacesValues() {
+    LongLongHashMap map = new LongLongHashMap();
+    map.put(3, 30);
+    map.put(3, 300);
+    assertEquals(300, map.get(3, 0));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void growsPastTheLoadFactor() {
+    // Starts with room for one entry, so it resizes many times.
+    LongLongHashMap map = new LongLongHashMap(1);
+    for (long key = -5000; key < 5000; key++) {
+      map.put(key * 31, key);
+    }
+    assertEquals(10000, map.size());
+    for (long key = -5000; key < 5000; key++) {
+      assertEquals(key, map.get(key * 31, Long.MIN_VALUE));
+      assertFalse(map.containsKey(key * 31 + 1));
+    }
+  }
+
+  @Test
+  public void clears() {
+    LongLongHashMap map = new LongLongHashMap();
+    for (long key = -100; key <= 100; key++) {
+      map.put(key, key);
+    }
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(0));
+    assertEquals(-1, map.get(42, -1));
+    map.put(42, 1);
+    assertEquals(1, map.get(42, -1));
+    assertEquals(1, map.size());
+  }
+}